@@ -14,4 +14,16 @@ public class Constants {
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
+    public static final String MEMCACHE_SEATS_UPDATE_PREFIX = "SEATS_UPDATE_PENDING_";
+    public static final String MEMCACHE_CONFERENCE_QUERY_PREFIX = "CONFERENCE_QUERY_";
+    public static final String MEMCACHE_CONFERENCE_QUERY_GENERATION_KEY = "CONFERENCE_QUERY_GENERATION";
+    public static final String MEMCACHE_CONFERENCE_ESTIMATE_PREFIX = "CONFERENCE_ESTIMATE_";
+    public static final String MEMCACHE_CONFERENCE_FACETS_KEY = "CONFERENCE_FACETS";
+    public static final String MEMCACHE_LATENCY_SNAPSHOT_PREFIX = "LATENCY_SNAPSHOT_";
+    public static final String MEMCACHE_LATENCY_INSTANCES_KEY = "LATENCY_INSTANCES";
+    public static final String MEMCACHE_NEAR_CACHE_VERSION_PREFIX = "NEAR_CACHE_VERSION_";
+    public static final String MEMCACHE_USER_ID_PREFIX = "USER_ID_";
+    public static final String MEMCACHE_WAITLIST_PROMOTION_PREFIX = "WAITLIST_PROMOTION_PENDING_";
+    public static final String MEMCACHE_REGISTRATION_INGEST_PREFIX = "REGISTRATION_INGEST_PENDING_";
+    public static final String MEMCACHE_REGISTRATION_STATUS_PREFIX = "REGISTRATION_STATUS_";
 }
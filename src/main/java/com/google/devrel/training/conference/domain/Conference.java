@@ -12,7 +12,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.googlecode.objectify.Key;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -28,6 +30,18 @@ public class Conference {
     public static final String DEFAULT_CITY = "Default City";
     public static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
 
+    /**
+     * Number of weeks in a period date bucket.
+     */
+    public static final int WEEKS_PER_PERIOD = 16;
+
+    /**
+     * Added to the number of a period date bucket, to keep it apart from the week buckets.
+     */
+    public static final int PERIOD_BUCKET_OFFSET = 1 << 24;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
     /**
      * The id for the datastore key.
      *
@@ -60,6 +74,14 @@ public class Conference {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private String organizerUserId;
 
+    /**
+     * The display name of the organizer, copied from the organizer's Profile.
+     *
+     * Kept up to date when the organizer changes the name, so that listings don't have to load
+     * the Profile of each organizer.
+     */
+    private String organizerDisplayName;
+
     /**
      * Topics related to this conference.
      */
@@ -90,6 +112,18 @@ public class Conference {
     @Index
     private int month;
 
+    /**
+     * The weeks and the periods of WEEKS_PER_PERIOD weeks the conference runs in, derived from
+     * startDate and endDate.
+     *
+     * Weeks are counted in whole weeks from the epoch in UTC, and periods in whole periods from
+     * the epoch plus PERIOD_BUCKET_OFFSET. We need this to find the conferences running in a
+     * date range with equality filters, see getDateBuckets(Date, Date).
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private List<Integer> dateBuckets;
+
     /**
      * The maximum capacity of this conference.
      */
@@ -102,6 +136,14 @@ public class Conference {
     @Index
     private int seatsAvailable;
 
+    /**
+     * Number of SeatShard entities holding the seat allocation of this conference.
+     *
+     * Zero means the seats have not been sharded yet and are counted on this entity only.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int seatShardCount;
+
     /**
      * Just making the default constructor private.
      */
@@ -145,7 +187,10 @@ public class Conference {
     }
 
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizationUserId)).now();
+        if (organizerDisplayName != null) {
+            return organizerDisplayName;
+        }
+        // Conferences saved before the name was stored on them.
         Profile organizer = ofy().load().key(getProfileKey()).now();
         if(organizer == null) {
             return organizerUserId;
@@ -154,6 +199,20 @@ public class Conference {
         }
     }
 
+    /**
+     * Returns whether the organizer's display name is stored on this Conference.
+     *
+     * @return false when getOrganizerDisplayName() has to load the organizer's Profile.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean hasOrganizerDisplayName() {
+        return organizerDisplayName != null;
+    }
+
+    public void updateOrganizerDisplayName(String organizerDisplayName) {
+        this.organizerDisplayName = organizerDisplayName;
+    }
+
     /**
      * Returns a defensive copy of topics if not null.
      * @return a defensive copy of topics if not null.
@@ -186,6 +245,80 @@ public class Conference {
         return month;
     }
 
+    /**
+     * Returns the weeks and the periods the conference runs in.
+     *
+     * @return the date buckets, empty when the conference has no start date.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<Integer> getDateBuckets() {
+        return dateBuckets == null
+                ? Collections.<Integer>emptyList() : Collections.unmodifiableList(dateBuckets);
+    }
+
+    /**
+     * Recomputes dateBuckets from startDate and endDate, which conferences saved before the
+     * property existed need.
+     *
+     * @return true when dateBuckets changed.
+     */
+    public boolean refreshDateBuckets() {
+        // The conference runs until the end of its last day.
+        Date lastDay = endDate == null ? startDate : endDate;
+        List<Integer> dateBuckets = new ArrayList<>(0);
+        if (startDate != null) {
+            int firstWeek = getWeek(startDate);
+            int lastWeek = getWeek(new Date(lastDay.getTime() + DAY_MILLIS - 1));
+            for (int week = firstWeek; week <= lastWeek; week++) {
+                dateBuckets.add(week);
+            }
+            for (int period = getPeriod(firstWeek); period <= getPeriod(lastWeek); period++) {
+                dateBuckets.add(PERIOD_BUCKET_OFFSET + period);
+            }
+        }
+        if (dateBuckets.equals(getDateBuckets())) {
+            return false;
+        }
+        this.dateBuckets = new ArrayList<>(dateBuckets);
+        return true;
+    }
+
+    /**
+     * Returns the date buckets to look up for the conferences running in the given range: its
+     * weeks when there are at most WEEKS_PER_PERIOD of them, otherwise its periods.
+     *
+     * @param from the first date.
+     * @param to the last date.
+     * @return the date buckets, in order, empty when to is before from.
+     */
+    public static List<Integer> getDateBuckets(Date from, Date to) {
+        int firstWeek = getWeek(from);
+        int lastWeek = getWeek(to);
+        List<Integer> dateBuckets = new ArrayList<>(0);
+        if (lastWeek - firstWeek < WEEKS_PER_PERIOD) {
+            for (int week = firstWeek; week <= lastWeek; week++) {
+                dateBuckets.add(week);
+            }
+        } else {
+            for (int period = getPeriod(firstWeek); period <= getPeriod(lastWeek); period++) {
+                dateBuckets.add(PERIOD_BUCKET_OFFSET + period);
+            }
+        }
+        return dateBuckets;
+    }
+
+    private static int getWeek(Date date) {
+        long day = date.getTime() / DAY_MILLIS;
+        if (date.getTime() % DAY_MILLIS < 0) {
+            day--;
+        }
+        return (int) (day >= 0 ? day / 7 : (day - 6) / 7);
+    }
+
+    private static int getPeriod(int week) {
+        return week >= 0 ? week / WEEKS_PER_PERIOD : (week - WEEKS_PER_PERIOD + 1) / WEEKS_PER_PERIOD;
+    }
+
     public int getMaxAttendees() {
         return maxAttendees;
     }
@@ -194,6 +327,33 @@ public class Conference {
         return seatsAvailable;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getSeatShardCount() {
+        return seatShardCount;
+    }
+
+    /**
+     * Records that the seats of this conference are now held by the given number of SeatShards.
+     *
+     * @param seatShardCount the number of SeatShard entities created for this conference.
+     */
+    public void setSeatShardCount(final int seatShardCount) {
+        this.seatShardCount = seatShardCount;
+    }
+
+    /**
+     * Overwrites the number of seats available with a count aggregated from the SeatShards.
+     *
+     * @param seatsAvailable the aggregated number of seats available.
+     */
+    public void updateSeatsAvailable(final int seatsAvailable) {
+        if (seatsAvailable < 0 || seatsAvailable > maxAttendees)
+            throw new IllegalArgumentException("The number of seats must be between 0 and "
+                    + maxAttendees + ", but was " + seatsAvailable);
+
+        this.seatsAvailable = seatsAvailable;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -218,6 +378,7 @@ public class Conference {
             //Calendar month is 0 based
             this.month = calendar.get(calendar.MONTH) + 1;
         }
+        refreshDateBuckets();
 
         // Check maxAttendees value is against the number of already allocated seats
         int seatsAllocated = maxAttendees - seatsAvailable;
@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The number of Conferences with each city, topic and start month, most frequent first.
+ */
+public class ConferenceFacets implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of Conferences with a facet value.
+     */
+    public static class FacetCount implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String value;
+
+        private long count;
+
+        public FacetCount() {}
+
+        public FacetCount(String value, long count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private ArrayList<FacetCount> cities = new ArrayList<>(0);
+
+    private ArrayList<FacetCount> topics = new ArrayList<>(0);
+
+    private ArrayList<FacetCount> months = new ArrayList<>(0);
+
+    public ConferenceFacets() {}
+
+    public List<FacetCount> getCities() {
+        return Collections.unmodifiableList(cities);
+    }
+
+    public List<FacetCount> getTopics() {
+        return Collections.unmodifiableList(topics);
+    }
+
+    public List<FacetCount> getMonths() {
+        return Collections.unmodifiableList(months);
+    }
+
+    /**
+     * Sets the counts of the given facet.
+     *
+     * @param facet the facet.
+     * @param counts the counts, most frequent first.
+     */
+    public void setCounts(Facet facet, List<FacetCount> counts) {
+        switch (facet) {
+            case CITY:
+                cities = new ArrayList<>(counts);
+                break;
+            case TOPIC:
+                topics = new ArrayList<>(counts);
+                break;
+            case MONTH:
+                months = new ArrayList<>(counts);
+                break;
+            default:
+                throw new IllegalStateException("Unknown facet " + facet);
+        }
+    }
+}
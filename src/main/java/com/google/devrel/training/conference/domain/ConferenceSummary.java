@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * The fields of a Conference shown in conference listings, without the description and topics.
+ */
+public class ConferenceSummary {
+
+    private String websafeKey;
+
+    private String name;
+
+    private String city;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private String organizerDisplayName;
+
+    private int maxAttendees;
+
+    private int seatsAvailable;
+
+    public ConferenceSummary() {}
+
+    public ConferenceSummary(Conference conference) {
+        this.websafeKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.endDate = conference.getEndDate();
+        this.organizerDisplayName = conference.getOrganizerDisplayName();
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsAvailable = conference.getSeatsAvailable();
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate == null ? null : new Date(startDate.getTime());
+    }
+
+    public Date getEndDate() {
+        return endDate == null ? null : new Date(endDate.getTime());
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CountedFacets records the facet values a Conference is counted under, so that after the
+ * Conference is written only the values which changed are counted again.
+ */
+@Entity
+@Cache
+public class CountedFacets {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    private List<String> cities = new ArrayList<>(0);
+
+    private List<String> topics = new ArrayList<>(0);
+
+    private List<String> months = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private CountedFacets() {}
+
+    public CountedFacets(final String websafeConferenceKey) {
+        this.websafeConferenceKey = websafeConferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    /**
+     * Returns the values of the given facet the Conference is counted under.
+     */
+    public Set<String> getValues(final Facet facet) {
+        return new LinkedHashSet<>(getList(facet));
+    }
+
+    public void setValues(final Facet facet, final Collection<String> values) {
+        List<String> list = getList(facet);
+        list.clear();
+        list.addAll(values);
+    }
+
+    private List<String> getList(final Facet facet) {
+        switch (facet) {
+            case CITY:
+                return cities;
+            case TOPIC:
+                return topics;
+            case MONTH:
+                return months;
+            default:
+                throw new IllegalStateException("Unknown facet " + facet);
+        }
+    }
+}
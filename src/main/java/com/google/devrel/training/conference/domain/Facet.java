@@ -0,0 +1,40 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The fields of a Conference which the search UI shows counts for.
+ */
+public enum Facet {
+    CITY,
+    TOPIC,
+    MONTH;
+
+    /**
+     * Returns the values of this facet of the given Conference.
+     *
+     * @param conference the Conference.
+     * @return the distinct values, empty when the Conference has none.
+     */
+    public Set<String> getValues(Conference conference) {
+        switch (this) {
+            case CITY:
+                return conference.getCity() == null
+                        ? Collections.<String>emptySet()
+                        : Collections.singleton(conference.getCity());
+            case TOPIC:
+                return conference.getTopics() == null
+                        ? Collections.<String>emptySet()
+                        : new LinkedHashSet<>(conference.getTopics());
+            case MONTH:
+                // Conferences without a start date have no month.
+                return conference.getMonth() == 0
+                        ? Collections.<String>emptySet()
+                        : Collections.singleton(String.valueOf(conference.getMonth()));
+            default:
+                throw new IllegalStateException("Unknown facet " + this);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * FacetCounterShard holds a part of the number of Conferences with a facet value.
+ *
+ * Each shard is a root entity, so Conferences written at the same time with the same city or
+ * topic update different shards instead of contending on one counter. A shard can go below
+ * zero; only the sum of the shards of a value is meaningful.
+ */
+@Entity
+@Cache
+public class FacetCounterShard {
+
+    /**
+     * The id for the datastore key, made of the facet, the value and the shard index.
+     */
+    @Id
+    private String id;
+
+    private Facet facet;
+
+    private String value;
+
+    private long count;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FacetCounterShard() {}
+
+    public FacetCounterShard(final Facet facet, final String value, final int index) {
+        this.id = createId(facet, value, index);
+        this.facet = facet;
+        this.value = value;
+    }
+
+    private static String createId(final Facet facet, final String value, final int index) {
+        return facet + ":" + value + ":" + index;
+    }
+
+    /**
+     * Returns the key of the shard with the given index of the counter of the given value.
+     *
+     * @param facet the facet.
+     * @param value the value of the facet.
+     * @param index the index of the shard, starting from 0.
+     * @return the key of the FacetCounterShard.
+     */
+    public static Key<FacetCounterShard> createKey(final Facet facet, final String value,
+                                                   final int index) {
+        return Key.create(FacetCounterShard.class, createId(facet, value, index));
+    }
+
+    public Facet getFacet() {
+        return facet;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void increment(final long delta) {
+        count += delta;
+    }
+}
@@ -0,0 +1,60 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * FacetValues lists the values a facet has had, so that their counters can be read by key.
+ *
+ * Values are only ever added, which happens the first time a Conference has them. A value no
+ * Conference has any more keeps its counters, which then sum to zero.
+ */
+@Entity
+@Cache
+public class FacetValues {
+
+    @Id
+    private String facet;
+
+    private List<String> values = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FacetValues() {}
+
+    public FacetValues(final Facet facet) {
+        this.facet = facet.name();
+    }
+
+    public Facet getFacet() {
+        return Facet.valueOf(facet);
+    }
+
+    public List<String> getValues() {
+        return ImmutableList.copyOf(values);
+    }
+
+    /**
+     * Adds the given values which are not listed yet.
+     *
+     * @param values the values to add.
+     * @return true when any value was added.
+     */
+    public boolean addValues(final Collection<String> values) {
+        boolean added = false;
+        for (String value : values) {
+            if (!this.values.contains(value)) {
+                this.values.add(value);
+                added = true;
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a group registration: whether each attendee was registered, and why not.
+ */
+public class GroupRegistrationResult {
+
+    private List<AttendeeResult> attendees = new ArrayList<>(0);
+
+    public GroupRegistrationResult() {}
+
+    public List<AttendeeResult> getAttendees() {
+        return Collections.unmodifiableList(attendees);
+    }
+
+    /**
+     * Returns the number of attendees registered.
+     */
+    public int getRegisteredCount() {
+        int registered = 0;
+        for (AttendeeResult attendee : attendees) {
+            if (attendee.isRegistered()) {
+                registered++;
+            }
+        }
+        return registered;
+    }
+
+    public void add(String email, boolean registered, String reason) {
+        attendees.add(new AttendeeResult(email, registered, reason));
+    }
+
+    /**
+     * The outcome for one attendee.
+     */
+    public static class AttendeeResult {
+
+        private String email;
+
+        private boolean registered;
+
+        private String reason;
+
+        public AttendeeResult() {}
+
+        public AttendeeResult(String email, boolean registered, String reason) {
+            this.email = email;
+            this.registered = registered;
+            this.reason = reason;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public boolean isRegistered() {
+            return registered;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PostingList holds one block of the postings of a search term: the Conferences whose name,
+ * description or topics contain the term, with the weight of the term in each of them.
+ *
+ * The postings of a term are split into a fixed number of blocks by Conference key, which bounds
+ * the size of each entity and spreads the writes of a popular term. The id starts with a hash of
+ * the term, so that the terms are spread over the key space instead of following the alphabet.
+ */
+@Entity
+@Cache
+public class PostingList {
+
+    /**
+     * The id for the datastore key, made of the term hash, the term and the block index.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The term of the postings.
+     */
+    private String term;
+
+    /**
+     * The weight of the term by websafe Conference key.
+     */
+    private Map<String, Integer> postings = new HashMap<>();
+
+    /**
+     * Just making the default constructor private.
+     */
+    private PostingList() {}
+
+    public PostingList(final String term, final int block) {
+        this.id = createId(term, block);
+        this.term = term;
+    }
+
+    private static String createId(final String term, final int block) {
+        return String.format("%02x", term.hashCode() & 0xff) + ":" + term + ":" + block;
+    }
+
+    /**
+     * Returns the key of the given block of the postings of the given term.
+     *
+     * @param term the term.
+     * @param block the index of the block, starting from 0.
+     * @return the key of the PostingList.
+     */
+    public static Key<PostingList> createKey(final String term, final int block) {
+        return Key.create(PostingList.class, createId(term, block));
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public Map<String, Integer> getPostings() {
+        return Collections.unmodifiableMap(postings);
+    }
+
+    /**
+     * Sets the weight of the term in the given Conference.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @param weight the weight of the term in the Conference.
+     */
+    public void putPosting(final String websafeConferenceKey, final int weight) {
+        postings.put(websafeConferenceKey, weight);
+    }
+
+    public void removePosting(final String websafeConferenceKey) {
+        postings.remove(websafeConferenceKey);
+    }
+
+    public boolean isEmpty() {
+        return postings.isEmpty();
+    }
+}
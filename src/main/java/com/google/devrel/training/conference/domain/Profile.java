@@ -17,12 +17,20 @@ public class Profile {
     private String mainEmail;
     private TeeShirtSize teeShirtSize;
 
+    /**
+     * Websafe keys of the conferences to attend, from before registrations were stored as
+     * Registration entities. Moved to Registrations and emptied on the next registration call.
+     */
     private List<String> conferenceKeysToAttend = new ArrayList<String>(0);
 
     public List<String> getConferenceKeysToAttend() {
         return conferenceKeysToAttend;
     }
 
+    public void clearConferenceKeysToAttend() {
+        this.conferenceKeysToAttend.clear();
+    }
+
     public void addToConferenceKeysToAttend(String conferenceKey) {
         this.conferenceKeysToAttend.add(conferenceKey);
     }
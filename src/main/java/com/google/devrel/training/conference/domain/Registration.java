@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * Registration records that a user attends a conference.
+ *
+ * The registration is a child of the attendee's Profile and is identified by the websafe key of
+ * the conference, so "am I registered" is a get by key and "my conferences" is an ancestor
+ * query. The indexed conferenceKey lets the organizer page through the attendees.
+ */
+@Entity
+@Cache
+public class Registration {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds the attendee's Profile key as the parent.
+     */
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Profile> profileKey;
+
+    /**
+     * The key of the Conference to attend.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The userId of the attendee.
+     */
+    @Index
+    private String userId;
+
+    /**
+     * When the registration was made.
+     */
+    private Date registrationDate;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Registration() {}
+
+    public Registration(final String userId, final Key<Conference> conferenceKey) {
+        this.websafeConferenceKey = conferenceKey.getString();
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.registrationDate = new Date();
+    }
+
+    /**
+     * Returns the key of the registration of the given user for the given Conference.
+     *
+     * @param userId the userId of the attendee.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @return the key of the Registration.
+     */
+    public static Key<Registration> createKey(final String userId,
+                                              final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), Registration.class,
+                websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getRegistrationDate() {
+        return registrationDate == null ? null : new Date(registrationDate.getTime());
+    }
+}
@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * RegistrationOutcome records the result of a registerForConference call made with a client
+ * request ID, so that a retry of the same call gets the same result instead of running again.
+ *
+ * The outcome is a child of the caller's Profile, in the same entity group as the caller's
+ * Registrations, so a successful outcome is saved in the transaction which books the seat.
+ * Objectify keeps it in memcache and falls back to the datastore on a miss.
+ */
+@Entity
+@Cache
+public class RegistrationOutcome {
+
+    /**
+     * The request ID sent by the client.
+     */
+    @Id
+    private String requestId;
+
+    /**
+     * Holds the caller's Profile key as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The websafe key of the Conference of the call.
+     */
+    private String websafeConferenceKey;
+
+    private boolean result;
+
+    private String reason;
+
+    /**
+     * When the call was made.
+     */
+    private Date date;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private RegistrationOutcome() {}
+
+    public RegistrationOutcome(final String userId, final String requestId,
+                               final String websafeConferenceKey, final boolean result,
+                               final String reason) {
+        this.requestId = requestId;
+        this.profileKey = Key.create(Profile.class, userId);
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.result = result;
+        this.reason = reason;
+        this.date = new Date();
+    }
+
+    /**
+     * Returns the key of the outcome of the given user's call with the given request ID.
+     *
+     * @param userId the userId of the caller.
+     * @param requestId the request ID sent by the client.
+     * @return the key of the RegistrationOutcome.
+     */
+    public static Key<RegistrationOutcome> createKey(final String userId, final String requestId) {
+        return Key.create(Key.create(Profile.class, userId), RegistrationOutcome.class, requestId);
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public boolean getResult() {
+        return result;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public Date getDate() {
+        return date == null ? null : new Date(date.getTime());
+    }
+}
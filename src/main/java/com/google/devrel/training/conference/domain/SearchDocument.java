@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SearchDocument records the terms a Conference was last indexed with, so that reindexing it
+ * only touches the PostingLists of the terms which changed, and removes the stale ones.
+ */
+@Entity
+@Cache
+public class SearchDocument {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * The weight of each term in the Conference.
+     */
+    private Map<String, Integer> termWeights = new HashMap<>();
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SearchDocument() {}
+
+    public SearchDocument(final String websafeConferenceKey,
+                          final Map<String, Integer> termWeights) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.termWeights = new HashMap<>(termWeights);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Map<String, Integer> getTermWeights() {
+        return Collections.unmodifiableMap(termWeights);
+    }
+}
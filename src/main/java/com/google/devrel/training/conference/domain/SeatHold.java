@@ -0,0 +1,129 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * SeatHold keeps a seat of a conference booked for a user until it is confirmed or expires.
+ *
+ * The seat is booked on a SeatShard when the hold is made, and the shard is recorded so that
+ * an expired hold gives the seat back to it. Like Registration, the hold is a child of the
+ * user's Profile identified by the websafe key of the conference, so confirming it replaces it
+ * with a Registration without touching the shard. The indexed expiration lets the sweeper find
+ * the expired holds.
+ */
+@Entity
+public class SeatHold {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds the user's Profile key as the parent.
+     */
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Profile> profileKey;
+
+    /**
+     * The key of the Conference.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The key of the SeatShard the seat is booked on.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<SeatShard> shardKey;
+
+    /**
+     * The userId of the user holding the seat.
+     */
+    private String userId;
+
+    /**
+     * When the hold expires.
+     */
+    @Index
+    private Date expiration;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatHold() {}
+
+    public SeatHold(final String userId, final Key<Conference> conferenceKey,
+                    final Key<SeatShard> shardKey, final Date expiration) {
+        this.websafeConferenceKey = conferenceKey.getString();
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = conferenceKey;
+        this.shardKey = shardKey;
+        this.userId = userId;
+        this.expiration = new Date(expiration.getTime());
+    }
+
+    /**
+     * Returns the key of the hold of the given user on a seat of the given Conference.
+     *
+     * @param userId the userId of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @return the key of the SeatHold.
+     */
+    public static Key<SeatHold> createKey(final String userId, final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), SeatHold.class, websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<SeatShard> getShardKey() {
+        return shardKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getExpiration() {
+        return new Date(expiration.getTime());
+    }
+
+    /**
+     * Returns whether the hold has expired at the given time.
+     */
+    public boolean isExpired(final Date now) {
+        return !expiration.after(now);
+    }
+
+    /**
+     * Moves the expiration of the hold, keeping the seat it has booked.
+     *
+     * @param expiration the new expiration.
+     */
+    public void renew(final Date expiration) {
+        this.expiration = new Date(expiration.getTime());
+    }
+}
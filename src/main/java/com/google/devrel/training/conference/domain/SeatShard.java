@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * SeatShard holds a slice of the seats of a Conference.
+ *
+ * Each shard is a root entity, so registrations booking seats on different shards
+ * do not contend on the same entity group.
+ */
+@Entity
+@Cache
+public class SeatShard {
+
+    /**
+     * The id for the datastore key, made of the websafe Conference key and the shard index.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The key of the Conference this shard belongs to.
+     */
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The number of seats in this slice.
+     */
+    private int capacity;
+
+    /**
+     * The number of seats in this slice which are still available.
+     */
+    private int seatsAvailable;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatShard() {}
+
+    public SeatShard(final Key<Conference> conferenceKey, final int index,
+                     final int capacity, final int seatsAvailable) {
+        this.id = createId(conferenceKey, index);
+        this.conferenceKey = conferenceKey;
+        this.capacity = capacity;
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    private static String createId(final Key<Conference> conferenceKey, final int index) {
+        return conferenceKey.getString() + "/" + index;
+    }
+
+    /**
+     * Returns the key of the shard with the given index of the given Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param index the index of the shard, starting from 0.
+     * @return the key of the shard.
+     */
+    public static Key<SeatShard> createKey(final Key<Conference> conferenceKey, final int index) {
+        return Key.create(SeatShard.class, createId(conferenceKey, index));
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public int getSeatsAllocated() {
+        return capacity - seatsAvailable;
+    }
+
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number)
+            throw new IllegalArgumentException("There are no seats available");
+
+        seatsAvailable = seatsAvailable - number;
+    }
+
+    public void giveBackSeats(final int number) {
+        if (seatsAvailable + number > capacity)
+            throw new IllegalArgumentException("The number of seats exceeds the capacity");
+
+        seatsAvailable = seatsAvailable + number;
+    }
+}
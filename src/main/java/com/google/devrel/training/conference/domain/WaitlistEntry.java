@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * WaitlistEntry records that a user waits for a seat of a full conference.
+ *
+ * Like Registration, the entry is a child of the user's Profile identified by the websafe key of
+ * the conference, so joining the waitlist only writes the user's own entity group, and promoting
+ * the user replaces the entry with a Registration in the same group. The indexed conferenceKey
+ * and joinDate give the waitlist of a conference in FIFO order.
+ */
+@Entity
+@Cache
+public class WaitlistEntry {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds the user's Profile key as the parent.
+     */
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Profile> profileKey;
+
+    /**
+     * The key of the Conference waited for.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The userId of the user waiting.
+     */
+    private String userId;
+
+    /**
+     * When the user joined the waitlist.
+     */
+    @Index
+    private Date joinDate;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WaitlistEntry() {}
+
+    public WaitlistEntry(final String userId, final Key<Conference> conferenceKey) {
+        this.websafeConferenceKey = conferenceKey.getString();
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.joinDate = new Date();
+    }
+
+    /**
+     * Returns the key of the waitlist entry of the given user for the given Conference.
+     *
+     * @param userId the userId of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @return the key of the WaitlistEntry.
+     */
+    public static Key<WaitlistEntry> createKey(final String userId,
+                                               final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), WaitlistEntry.class,
+                websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getJoinDate() {
+        return joinDate == null ? null : new Date(joinDate.getTime());
+    }
+}
@@ -4,10 +4,18 @@ import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.appengine.repackaged.com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.logging.Logger;
 
 import static com.google.devrel.training.conference.service.OfyService.ofy;
@@ -34,7 +42,8 @@ public class ConferenceQueryForm {
         CITY("city", FieldType.STRING),
         TOPIC("topics", FieldType.STRING),
         MONTH("month", FieldType.INTEGER),
-        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER);
+        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER),
+        DATES("dateBuckets", FieldType.INTEGER);
 
         private String fieldName;
 
@@ -48,6 +57,44 @@ public class ConferenceQueryForm {
         private String getFieldName() {
             return this.fieldName;
         }
+
+        /**
+         * Compares two filter values of this field in the order of the datastore index.
+         */
+        private int compare(String value1, String value2) {
+            if (fieldType == FieldType.INTEGER) {
+                return Integer.compare(Integer.parseInt(value1), Integer.parseInt(value2));
+            }
+            return value1.compareTo(value2);
+        }
+
+        /**
+         * Returns the values of this field of the given Conference, as filter values.
+         */
+        private List<String> getValues(Conference conference) {
+            switch (this) {
+                case CITY:
+                    return conference.getCity() == null
+                            ? Collections.<String>emptyList()
+                            : Collections.singletonList(conference.getCity());
+                case TOPIC:
+                    return conference.getTopics() == null
+                            ? Collections.<String>emptyList()
+                            : conference.getTopics();
+                case MONTH:
+                    return Collections.singletonList(String.valueOf(conference.getMonth()));
+                case MAX_ATTENDEES:
+                    return Collections.singletonList(String.valueOf(conference.getMaxAttendees()));
+                case DATES:
+                    List<String> dateBuckets = new ArrayList<>(0);
+                    for (Integer dateBucket : conference.getDateBuckets()) {
+                        dateBuckets.add(String.valueOf(dateBucket));
+                    }
+                    return dateBuckets;
+                default:
+                    throw new IllegalStateException("Unknown field " + this);
+            }
+        }
     }
 
     /**
@@ -59,7 +106,9 @@ public class ConferenceQueryForm {
         GT(">"),
         LTEQ("<="),
         GTEQ(">="),
-        NE("!=");
+        NE("!="),
+        IN("in"),
+        OVERLAPS("overlaps");
 
         private String queryOperator;
 
@@ -75,6 +124,31 @@ public class ConferenceQueryForm {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!=");
         }
+
+        /**
+         * Returns whether a field value comparing to the filter value as given satisfies this
+         * operator.
+         */
+        private boolean accepts(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case LT:
+                    return comparison < 0;
+                case GT:
+                    return comparison > 0;
+                case LTEQ:
+                    return comparison <= 0;
+                case GTEQ:
+                    return comparison >= 0;
+                case NE:
+                    return comparison != 0;
+                case IN:
+                    return comparison == 0;
+                default:
+                    throw new IllegalStateException("Unknown operator " + this);
+            }
+        }
     }
 
     public static class Filter {
@@ -102,32 +176,149 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        /**
+         * Returns the values of an IN filter, which are separated by commas.
+         *
+         * @return the distinct values, in the order they were given.
+         */
+        @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+        public List<String> getInValues() {
+            List<String> inValues = new ArrayList<>(0);
+            for (String inValue : value.split(",")) {
+                inValue = inValue.trim();
+                if (!inValue.isEmpty() && !inValues.contains(inValue)) {
+                    inValues.add(inValue);
+                }
+            }
+            return inValues;
+        }
+
+        /**
+         * Returns the range of an OVERLAPS filter, whose value is two days separated by a slash,
+         * such as 2014-03-03/2014-03-10.
+         *
+         * @return the start of the first day and the end of the last day, in UTC.
+         * @throws IllegalArgumentException when the value is not a valid range.
+         */
+        private Date[] getDateRange() {
+            String[] days = value.split("/");
+            if (days.length != 2) {
+                throw new IllegalArgumentException("Invalid date range: " + value);
+            }
+            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            dateFormat.setLenient(false);
+            try {
+                Date from = dateFormat.parse(days[0].trim());
+                Date to = new Date(dateFormat.parse(days[1].trim()).getTime() + DAY_MILLIS - 1);
+                if (to.before(from)) {
+                    throw new IllegalArgumentException("Invalid date range: " + value);
+                }
+                return new Date[] {from, to};
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Invalid date range: " + value);
+            }
+        }
+
+        /**
+         * Returns whether the given Conference satisfies this filter. Like the datastore, a
+         * multi-valued field satisfies it when any one of its values does. For an OVERLAPS
+         * filter, whether the days of the Conference overlap the range.
+         *
+         * @param conference the Conference to check.
+         * @return true when the Conference satisfies the filter.
+         */
+        public boolean matches(Conference conference) {
+            if (operator == Operator.OVERLAPS) {
+                if (conference.getStartDate() == null) {
+                    return false;
+                }
+                Date[] range = getDateRange();
+                Date lastDay = conference.getEndDate() == null
+                        ? conference.getStartDate() : conference.getEndDate();
+                // The conference runs until the end of its last day.
+                return !conference.getStartDate().after(range[1])
+                        && lastDay.getTime() + DAY_MILLIS > range[0].getTime();
+            }
+            for (String fieldValue : field.getValues(conference)) {
+                if (matchesValue(fieldValue)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the date buckets to look up for the range of an OVERLAPS filter.
+         */
+        private List<String> getDateBuckets() {
+            Date[] range = getDateRange();
+            List<String> dateBuckets = new ArrayList<>(0);
+            for (Integer dateBucket : Conference.getDateBuckets(range[0], range[1])) {
+                dateBuckets.add(String.valueOf(dateBucket));
+            }
+            return dateBuckets;
+        }
+
+        private boolean matchesValue(String fieldValue) {
+            if (operator == Operator.IN) {
+                for (String inValue : getInValues()) {
+                    if (field.compare(fieldValue, inValue) == 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return operator.accepts(field.compare(fieldValue, value));
+        }
     }
 
+    /**
+     * Largest number of datastore queries a form can be split into, the same limit the
+     * datastore puts on its own != and IN queries.
+     */
+    public static final int MAX_QUERIES = 30;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
     /***
      * A list of query filters
      */
     private List<Filter> filters = new ArrayList<>(0);
 
     /**
-     * Holds the first inequalityFilter for checking the feasibility of the whole query.
+     * The maximum number of conferences to return, null for the default page size.
      */
-    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    private Filter inequalityFilter;
+    private Integer pageSize;
+
+    /**
+     * The nextPageToken of the previous page, null for the first page.
+     */
+    private String pageToken;
 
     public ConferenceQueryForm() {
     }
 
-    private void checkFilters() {
-        for (Filter filter : this.filters) {
-            if (filter.operator.isInequalityFilter()) {
-                // only one inequality filter is allowed
-                if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                    throw new IllegalArgumentException("In equality filter is allowed on only one field");
-                }
-            }
-            inequalityFilter = filter;
-        }
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    /**
+     * Sets the page to return.
+     *
+     * @param pageSize The maximum number of conferences to return.
+     * @param pageToken The nextPageToken of the previous page, null for the first page.
+     * @return this for method chaining
+     */
+    public ConferenceQueryForm page(Integer pageSize, String pageToken) {
+        this.pageSize = pageSize;
+        this.pageToken = pageToken;
+        return this;
     }
 
     /**
@@ -142,43 +333,322 @@ public class ConferenceQueryForm {
     /**
      * Add a query filter.
      *
+     * Inequality filters may be on several fields. Only one of them can be run by the datastore,
+     * the others are applied in memory, see getQueries(Field) and getResidualFilters(Field).
+     *
      *  @param filter A Filter object for the query.
      *  @return this for method chaining
      */
     public ConferenceQueryForm filter(Filter filter) {
-        if (filter.operator.isInequalityFilter()) {
+        filters.add(filter);
+        return this;
+    }
 
-            if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                throw new IllegalArgumentException("In equality filter is allowed on only one field");
+    private void checkFilters() {
+        for (Filter filter : this.filters) {
+            if ((filter.field == Field.DATES) != (filter.operator == Operator.OVERLAPS)) {
+                throw new IllegalArgumentException(
+                        "The DATES field only allows the OVERLAPS operator, and the other way round");
             }
-            inequalityFilter = filter;
         }
-        filters.add(filter);
-        return this;
+    }
+
+    /**
+     * Returns the fields with inequality filters, in the order they were first filtered on.
+     *
+     * @return the fields, empty when there are only equality filters.
+     */
+    @ApiResourceProperty (ignored = AnnotationBoolean.TRUE)
+    public List<Field> getInequalityFields() {
+        checkFilters();
+        List<Field> fields = new ArrayList<>(0);
+        for (Filter filter : this.filters) {
+            if (filter.operator.isInequalityFilter() && !fields.contains(filter.field)) {
+                fields.add(filter.field);
+            }
+        }
+        return fields;
     }
 
     /**
      * Returns an Objectify Query object for the specified filters.
      *
      * @return an Objectify Query
+     * @throws IllegalArgumentException when there are inequality filters on more than one field.
      */
     @ApiResourceProperty (ignored = AnnotationBoolean.TRUE)
     public Query<Conference> getQuery() {
-        // Check feasibility of the inequality filters.
-        checkFilters();
+        List<Field> inequalityFields = getInequalityFields();
+        if (inequalityFields.size() > 1) {
+            throw new IllegalArgumentException("In equality filter is allowed on only one field");
+        }
+        return getQuery(inequalityFields.isEmpty() ? null : inequalityFields.get(0));
+    }
+
+    /**
+     * Returns an Objectify Query object for the equality filters and the inequality filters on
+     * the given field. The inequality filters on the other fields are left out.
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @return an Objectify Query
+     */
+    public Query<Conference> getQuery(Field inequalityField) {
+        return buildQuery(getPushedFilters(inequalityField), inequalityField);
+    }
+
+    /**
+     * Returns Objectify Query objects whose results, merged in the order of getOrder(Field), are
+     * the results of the equality filters and the inequality filters on the given field.
+     *
+     * The datastore runs != and IN filters as several queries merged in memory, and such a query
+     * cannot be resumed from a cursor. Instead every != value splits the query into the range
+     * below and the range above it, and an IN filter into one query for each of its values. An
+     * OVERLAPS filter is split into one query for each date bucket of its range, see
+     * Conference.getDateBuckets(Date, Date), and the results are
+     * then checked with getResidualFilters(Field). A form with several of them gets a query for
+     * each combination.
+     *
+     * A Conference with several values of a multi-valued inequality field can be returned by
+     * more than one of the ranges, each time sorted by its smallest value in that range; only
+     * the results for which isFirstOccurrence() holds are in the order of getOrder(Field).
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @return the Objectify Queries, all in the order of getOrder(Field)
+     * @throws IllegalArgumentException when the form needs more than MAX_QUERIES queries.
+     */
+    public List<Query<Conference>> getQueries(final Field inequalityField) {
+        List<List<Filter>> combinations = getQueryFilters(inequalityField);
+        List<Query<Conference>> queries = new ArrayList<>(combinations.size());
+        for (List<Filter> combination : combinations) {
+            queries.add(buildQuery(combination, inequalityField));
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the filters of each of the queries of getQueries(Field), in the same order.
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @return the filters of each query
+     * @throws IllegalArgumentException when the form needs more than MAX_QUERIES queries.
+     */
+    public List<List<Filter>> getQueryFilters(final Field inequalityField) {
+        List<List<Filter>> combinations = new ArrayList<>(1);
+        combinations.add(new ArrayList<Filter>(0));
+        List<String> notEqualValues = new ArrayList<>(0);
+        for (Filter filter : getPushedFilters(inequalityField)) {
+            if (filter.operator == Operator.NE) {
+                if (!notEqualValues.contains(filter.value)) {
+                    notEqualValues.add(filter.value);
+                }
+            } else if (filter.operator == Operator.IN) {
+                List<List<Filter>> alternatives = new ArrayList<>(0);
+                for (String inValue : filter.getInValues()) {
+                    alternatives.add(ImmutableList.of(new Filter(filter.field, Operator.EQ, inValue)));
+                }
+                combinations = combine(combinations, alternatives);
+            } else if (filter.operator == Operator.OVERLAPS) {
+                List<List<Filter>> alternatives = new ArrayList<>(0);
+                for (String dateBucket : filter.getDateBuckets()) {
+                    alternatives.add(ImmutableList.of(new Filter(Field.DATES, Operator.EQ, dateBucket)));
+                }
+                combinations = combine(combinations, alternatives);
+            } else {
+                combinations = combine(combinations,
+                        ImmutableList.<List<Filter>>of(ImmutableList.of(filter)));
+            }
+        }
+
+        if (!notEqualValues.isEmpty()) {
+            Collections.sort(notEqualValues, new Comparator<String>() {
+                @Override
+                public int compare(String value1, String value2) {
+                    return inequalityField.compare(value1, value2);
+                }
+            });
+            List<List<Filter>> ranges = new ArrayList<>(notEqualValues.size() + 1);
+            for (int i = 0; i <= notEqualValues.size(); i++) {
+                List<Filter> range = new ArrayList<>(2);
+                if (i > 0) {
+                    range.add(new Filter(inequalityField, Operator.GT, notEqualValues.get(i - 1)));
+                }
+                if (i < notEqualValues.size()) {
+                    range.add(new Filter(inequalityField, Operator.LT, notEqualValues.get(i)));
+                }
+                ranges.add(range);
+            }
+            combinations = combine(combinations, ranges);
+        }
+
+        if (combinations.size() > MAX_QUERIES) {
+            throw new IllegalArgumentException("The filters need " + combinations.size()
+                    + " queries, at most " + MAX_QUERIES + " are allowed");
+        }
+        return combinations;
+    }
+
+    /**
+     * Returns whether the given result of the query with the given filters is where the
+     * Conference belongs in the order of getOrder(Field). It is not when the Conference has a
+     * smaller value of the inequality field in the range of another query, which returns it
+     * there.
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @param queryFilters the filters of the query, one of getQueryFilters(Field).
+     * @param conference a result of the query.
+     * @return false when the result is to be skipped.
+     */
+    public boolean isFirstOccurrence(Field inequalityField, List<Filter> queryFilters,
+                                     Conference conference) {
+        if (inequalityField == null) {
+            return true;
+        }
+        List<Filter> rangeFilters = new ArrayList<>(2);
+        for (Filter filter : queryFilters) {
+            if (filter.operator.isInequalityFilter() && filter.field == inequalityField) {
+                rangeFilters.add(filter);
+            }
+        }
+        String querySortValue = getSortValue(inequalityField, rangeFilters, conference);
+        String sortValue = getSortValue(
+                inequalityField, getInequalityFilters(inequalityField), conference);
+        return querySortValue == null || sortValue == null
+                || inequalityField.compare(querySortValue, sortValue) == 0;
+    }
+
+    /**
+     * Returns the order of the results of getQueries(Field): by the inequality field, then by
+     * name, then by key like the datastore does. A multi-valued inequality field sorts by its
+     * smallest value matching the filters on the field.
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @return the Comparator of the results
+     */
+    public Comparator<Conference> getOrder(final Field inequalityField) {
+        final List<Filter> inequalityFilters = getInequalityFilters(inequalityField);
+        return new Comparator<Conference>() {
+            @Override
+            public int compare(Conference conference1, Conference conference2) {
+                if (inequalityField != null) {
+                    int comparison = inequalityField.compare(
+                            getSortValue(inequalityField, inequalityFilters, conference1),
+                            getSortValue(inequalityField, inequalityFilters, conference2));
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                int comparison = conference1.getName().compareTo(conference2.getName());
+                if (comparison != 0) {
+                    return comparison;
+                }
+                return Key.<Conference>create(conference1.getWebsafeKey())
+                        .compareTo(Key.<Conference>create(conference2.getWebsafeKey()));
+            }
+        };
+    }
+
+    private List<Filter> getInequalityFilters(Field inequalityField) {
+        List<Filter> inequalityFilters = new ArrayList<>(0);
+        for (Filter filter : this.filters) {
+            if (filter.operator.isInequalityFilter() && filter.field == inequalityField) {
+                inequalityFilters.add(filter);
+            }
+        }
+        return inequalityFilters;
+    }
+
+    /**
+     * Returns the smallest value of the given field of the Conference which matches all the
+     * given filters, which is the value the datastore sorts a multi-valued field by.
+     */
+    private static String getSortValue(Field field, List<Filter> filters, Conference conference) {
+        String sortValue = null;
+        for (String fieldValue : field.getValues(conference)) {
+            boolean matches = true;
+            for (Filter filter : filters) {
+                matches &= filter.matchesValue(fieldValue);
+            }
+            if (matches && (sortValue == null || field.compare(fieldValue, sortValue) < 0)) {
+                sortValue = fieldValue;
+            }
+        }
+        return sortValue;
+    }
+
+    private static List<List<Filter>> combine(List<List<Filter>> combinations,
+                                              List<List<Filter>> alternatives) {
+        List<List<Filter>> combined = new ArrayList<>(combinations.size() * alternatives.size());
+        for (List<Filter> combination : combinations) {
+            for (List<Filter> alternative : alternatives) {
+                List<Filter> filters = new ArrayList<>(combination);
+                filters.addAll(alternative);
+                combined.add(filters);
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * Returns the inequality filters which are not on the given field, and the OVERLAPS filters
+     * which the date buckets only approximate. The results of getQueries(Field) which match all
+     * of them are the results of the form.
+     *
+     * @param inequalityField the inequality field run by the datastore, null for none.
+     * @return the filters to apply in memory with Filter.matches().
+     */
+    public List<Filter> getResidualFilters(Field inequalityField) {
+        List<Filter> residualFilters = new ArrayList<>(0);
+        for (Filter filter : this.filters) {
+            if ((filter.operator.isInequalityFilter() && filter.field != inequalityField)
+                    || filter.operator == Operator.OVERLAPS) {
+                residualFilters.add(filter);
+            }
+        }
+        return residualFilters;
+    }
+
+    private List<Filter> getPushedFilters(Field inequalityField) {
+        if (inequalityField != null && !getInequalityFields().contains(inequalityField)) {
+            throw new IllegalArgumentException("No inequality filter on " + inequalityField);
+        }
+        List<Filter> pushedFilters = new ArrayList<>(this.filters.size());
+        for (Filter filter : this.filters) {
+            if (!filter.operator.isInequalityFilter() || filter.field == inequalityField) {
+                pushedFilters.add(filter);
+            }
+        }
+        return pushedFilters;
+    }
+
+    private Query<Conference> buildQuery(List<Filter> filters, Field inequalityField) {
         Query<Conference> query = ofy().load().type(Conference.class);
-        if(inequalityFilter == null) {
+        if(inequalityField == null) {
             // Order by Name.
             query = query.order("name");
         } else {
             // If we have any inequality filters, order by the field of the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
+            query = query.order(inequalityField.getFieldName());
             query = query.order("name");
         }
 
-        for (Filter filter: this.filters) {
+        for (Filter filter: filters) {
             // Applies filters in order.
-            if (filter.field.fieldType == FieldType.STRING) {
+            if (filter.operator == Operator.OVERLAPS) {
+                List<Integer> dateBuckets = new ArrayList<>(0);
+                for (String dateBucket : filter.getDateBuckets()) {
+                    dateBuckets.add(Integer.parseInt(dateBucket));
+                }
+                query = query.filter(String.format("%s in", filter.field.getFieldName()),
+                        dateBuckets);
+            } else if (filter.operator == Operator.IN) {
+                List<Object> inValues = new ArrayList<>(0);
+                for (String inValue : filter.getInValues()) {
+                    inValues.add(filter.field.fieldType == FieldType.INTEGER
+                            ? Integer.parseInt(inValue) : inValue);
+                }
+                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
+                        filter.operator.getQueryOperator()), inValues);
+            } else if (filter.field.fieldType == FieldType.STRING) {
                 query = query.filter(String.format("%s %s", filter.field.getFieldName(),
                         filter.operator.getQueryOperator()), filter.value);
             } else if (filter.field.fieldType == FieldType.INTEGER) {
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.form;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pojo representing a group registration form on the client side.
+ */
+public class GroupRegistrationForm {
+    /**
+     * The emails of the attendees to register.
+     */
+    private List<String> attendeeEmails;
+
+    private GroupRegistrationForm() {}
+
+    /**
+     * Constructor for GroupRegistrationForm, solely for unit test.
+     * @param attendeeEmails The emails of the attendees to register.
+     */
+    public GroupRegistrationForm(List<String> attendeeEmails) {
+        this.attendeeEmails = attendeeEmails == null ? null : new ArrayList<>(attendeeEmails);
+    }
+
+    public List<String> getAttendeeEmails() {
+        return attendeeEmails;
+    }
+}
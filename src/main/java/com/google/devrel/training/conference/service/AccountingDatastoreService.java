@@ -0,0 +1,230 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.utils.FutureWrapper;
+
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * An AsyncDatastoreService which records the calls made through it in RpcAccounting.
+ *
+ * OfyService installs one below Objectify's memcache layer, where it sees the calls which reach
+ * the datastore, and one above it, where it counts the keys requested so that the entities
+ * served from memcache can be told apart. The single entity loads are counted above, so that
+ * the N+1 loads of cached kinds are reported whether memcache serves them or not.
+ */
+class AccountingDatastoreService extends ForwardingDatastoreService {
+
+    /**
+     * Whether this sits above Objectify's memcache layer rather than in front of the datastore.
+     */
+    private final boolean cacheLayer;
+
+    AccountingDatastoreService(AsyncDatastoreService delegate, boolean cacheLayer) {
+        super(delegate);
+        this.cacheLayer = cacheLayer;
+    }
+
+    private void recordLoad(Transaction txn, Key key) {
+        recordLoad(txn, key.getKind(), 1);
+    }
+
+    private void recordLoad(Transaction txn, Iterable<Key> keys) {
+        Iterator<Key> iterator = keys.iterator();
+        String kind = iterator.hasNext() ? iterator.next().getKind() : null;
+        int count = kind == null ? 0 : 1;
+        for (; iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        recordLoad(txn, kind, count);
+    }
+
+    private void recordLoad(Transaction txn, String kind, int keys) {
+        if (cacheLayer) {
+            RpcAccounting.recordKeysRequested(kind, keys, txn != null);
+        } else if (keys > 0) {
+            RpcAccounting.recordLoad(kind, keys, txn != null);
+        }
+    }
+
+    private void recordSave(int entities) {
+        if (!cacheLayer) {
+            RpcAccounting.recordSave(entities);
+        }
+    }
+
+    private void recordDelete() {
+        if (!cacheLayer) {
+            RpcAccounting.recordDelete();
+        }
+    }
+
+    private void recordQuery() {
+        if (!cacheLayer) {
+            RpcAccounting.recordQuery();
+        }
+    }
+
+    private static int size(Iterable<?> iterable) {
+        if (iterable instanceof Collection) {
+            return ((Collection<?>) iterable).size();
+        }
+        int size = 0;
+        for (Iterator<?> iterator = iterable.iterator(); iterator.hasNext(); iterator.next()) {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    protected Transaction unwrap(Transaction txn) {
+        return txn instanceof AccountingTransaction ? ((AccountingTransaction) txn).raw : txn;
+    }
+
+    @Override
+    public Future<Entity> get(Key key) {
+        recordLoad(null, key);
+        return super.get(key);
+    }
+
+    @Override
+    public Future<Entity> get(Transaction txn, Key key) {
+        recordLoad(txn, key);
+        return super.get(txn, key);
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Iterable<Key> keys) {
+        recordLoad(null, keys);
+        return super.get(keys);
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Transaction txn, Iterable<Key> keys) {
+        recordLoad(txn, keys);
+        return super.get(txn, keys);
+    }
+
+    @Override
+    public Future<Key> put(Entity entity) {
+        recordSave(1);
+        return super.put(entity);
+    }
+
+    @Override
+    public Future<Key> put(Transaction txn, Entity entity) {
+        recordSave(1);
+        return super.put(txn, entity);
+    }
+
+    @Override
+    public Future<List<Key>> put(Iterable<Entity> entities) {
+        recordSave(size(entities));
+        return super.put(entities);
+    }
+
+    @Override
+    public Future<List<Key>> put(Transaction txn, Iterable<Entity> entities) {
+        recordSave(size(entities));
+        return super.put(txn, entities);
+    }
+
+    @Override
+    public Future<Void> delete(Iterable<Key> keys) {
+        recordDelete();
+        return super.delete(keys);
+    }
+
+    @Override
+    public Future<Void> delete(Transaction txn, Iterable<Key> keys) {
+        recordDelete();
+        return super.delete(txn, keys);
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction() {
+        return cacheLayer ? super.beginTransaction() : wrap(super.beginTransaction());
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction(TransactionOptions options) {
+        return cacheLayer ? super.beginTransaction(options)
+                : wrap(super.beginTransaction(options));
+    }
+
+    private static Future<Transaction> wrap(Future<Transaction> transaction) {
+        RpcAccounting.recordTransaction();
+        return new FutureWrapper<Transaction, Transaction>(transaction) {
+            @Override
+            protected Transaction wrap(Transaction raw) {
+                return new AccountingTransaction(raw);
+            }
+
+            @Override
+            protected Throwable convertException(Throwable cause) {
+                return cause;
+            }
+        };
+    }
+
+    @Override
+    public PreparedQuery prepare(Query query) {
+        recordQuery();
+        return super.prepare(query);
+    }
+
+    @Override
+    public PreparedQuery prepare(Transaction txn, Query query) {
+        recordQuery();
+        return super.prepare(txn, query);
+    }
+
+    /**
+     * A Transaction which records the commits failing with a ConcurrentModificationException.
+     */
+    private static class AccountingTransaction extends ForwardingTransaction {
+
+        private AccountingTransaction(Transaction raw) {
+            super(raw);
+        }
+
+        @Override
+        public void commit() {
+            try {
+                super.commit();
+            } catch (ConcurrentModificationException e) {
+                RpcAccounting.recordRetry();
+                throw e;
+            }
+        }
+
+        @Override
+        public Future<Void> commitAsync() {
+            return new FutureWrapper<Void, Void>(super.commitAsync()) {
+                @Override
+                protected Void wrap(Void result) {
+                    return result;
+                }
+
+                @Override
+                protected Throwable convertException(Throwable cause) {
+                    if (cause instanceof ConcurrentModificationException) {
+                        RpcAccounting.recordRetry();
+                    }
+                    return cause;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memcache cache of the Conference keys returned for a ConferenceQueryForm page.
+ *
+ * Entries are keyed by a hash of the filters, sorted so that the same filters in another order
+ * share an entry, and of the requested page. Every cache key also includes a generation number
+ * kept in memcache; bumping it after a Conference write makes all the older entries unreachable.
+ */
+public class ConferenceQueryCache {
+
+    /**
+     * Entries also expire, which bounds how long a result of an eventually consistent query
+     * can be served.
+     */
+    private static final int EXPIRATION_SECONDS = 60;
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A cached page: the websafe Conference keys in result order and the next page token.
+     */
+    public static class CachedPage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> websafeConferenceKeys;
+        private final String nextPageToken;
+
+        public CachedPage(List<String> websafeConferenceKeys, String nextPageToken) {
+            this.websafeConferenceKeys = new ArrayList<>(websafeConferenceKeys);
+            this.nextPageToken = nextPageToken;
+        }
+
+        public List<String> getWebsafeConferenceKeys() {
+            return Collections.unmodifiableList(websafeConferenceKeys);
+        }
+
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+    }
+
+    /**
+     * Returns the cache key for the page of the given form under the current generation.
+     *
+     * @param conferenceQueryForm the filters and the page.
+     * @return the memcache key.
+     */
+    public static String cacheKey(ConferenceQueryForm conferenceQueryForm) {
+        List<String> filters = new ArrayList<>(0);
+        for (Filter filter : conferenceQueryForm.getFilters()) {
+            filters.add(filter.getField() + " " + filter.getOperator() + " " + filter.getValue());
+        }
+        Collections.sort(filters);
+
+        StringBuilder canonical = new StringBuilder();
+        for (String filter : filters) {
+            canonical.append(filter).append('\n');
+        }
+        canonical.append("pageSize ").append(conferenceQueryForm.getPageSize()).append('\n')
+                .append("pageToken ").append(conferenceQueryForm.getPageToken());
+
+        return Constants.MEMCACHE_CONFERENCE_QUERY_PREFIX + getGeneration() + "_"
+                + sha1(canonical.toString());
+    }
+
+    /**
+     * Returns the cached page, counting a hit or a miss.
+     *
+     * @param cacheKey the key returned by cacheKey().
+     * @return the cached page, or null when there is none.
+     */
+    public static CachedPage get(String cacheKey) {
+        Object cached = MemcacheServiceFactory.getMemcacheService().get(cacheKey);
+        if (cached instanceof CachedPage) {
+            hits.incrementAndGet();
+            RpcAccounting.recordMemcacheHit();
+            return (CachedPage) cached;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public static void put(String cacheKey, CachedPage page) {
+        MemcacheServiceFactory.getMemcacheService().put(cacheKey, page,
+                Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    }
+
+    /**
+     * Makes all the cached pages unreachable. Call after writing a Conference in a way that can
+     * change which conferences match a query or their order.
+     */
+    public static void invalidate() {
+        // Start from the current time if the counter was evicted, so that old entries which
+        // are still cached are not picked up again.
+        MemcacheServiceFactory.getMemcacheService().increment(
+                Constants.MEMCACHE_CONFERENCE_QUERY_GENERATION_KEY, 1L,
+                System.currentTimeMillis());
+    }
+
+    private static long getGeneration() {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object generation = memcacheService.get(Constants.MEMCACHE_CONFERENCE_QUERY_GENERATION_KEY);
+        if (generation != null) {
+            return (Long) generation;
+        }
+        long initial = System.currentTimeMillis();
+        memcacheService.put(Constants.MEMCACHE_CONFERENCE_QUERY_GENERATION_KEY, initial, null,
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        generation = memcacheService.get(Constants.MEMCACHE_CONFERENCE_QUERY_GENERATION_KEY);
+        return generation == null ? initial : (Long) generation;
+    }
+
+    static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Chooses which inequality field of a ConferenceQueryForm the datastore runs.
+ *
+ * The datastore allows inequality filters on only one field per query. When a form has them on
+ * several fields, the planner estimates how many Conferences each field would return together
+ * with the equality filters, and picks the smallest so that the least results are read and
+ * dropped by the in-memory filters. The estimates are capped keys-only counts, kept in memcache
+ * for a while since they only need to be roughly right.
+ */
+public class ConferenceQueryPlanner {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceQueryPlanner.class.getName());
+
+    /**
+     * Counting stops at this many keys; past that a field is not selective enough to matter.
+     */
+    static final int ESTIMATE_LIMIT = 1000;
+
+    private static final int ESTIMATE_EXPIRATION_SECONDS = 10 * 60;
+
+    /**
+     * Returns the inequality field to run in the datastore for the given form.
+     *
+     * @param conferenceQueryForm the filters.
+     * @return the most selective inequality field, the first one on a tie, or null when the form
+     *         has only equality filters.
+     */
+    public static Field chooseInequalityField(ConferenceQueryForm conferenceQueryForm) {
+        List<Field> inequalityFields = conferenceQueryForm.getInequalityFields();
+        if (inequalityFields.size() <= 1) {
+            return inequalityFields.isEmpty() ? null : inequalityFields.get(0);
+        }
+        Field chosen = null;
+        int chosenCount = Integer.MAX_VALUE;
+        for (Field field : inequalityFields) {
+            int count = estimateCount(conferenceQueryForm, field);
+            if (count < chosenCount) {
+                chosen = field;
+                chosenCount = count;
+            }
+        }
+        LOG.info("Running the inequality filters on " + chosen + " in the datastore, about "
+                + chosenCount + " results");
+        return chosen;
+    }
+
+    /**
+     * Returns the number of Conferences matching the equality filters and the inequality filters
+     * on the given field, up to ESTIMATE_LIMIT.
+     */
+    static int estimateCount(ConferenceQueryForm conferenceQueryForm, Field field) {
+        String cacheKey = estimateCacheKey(conferenceQueryForm, field);
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(cacheKey);
+        if (cached instanceof Integer) {
+            RpcAccounting.recordMemcacheHit();
+            return (Integer) cached;
+        }
+        int count = conferenceQueryForm.getQuery(field).limit(ESTIMATE_LIMIT).count();
+        memcacheService.put(cacheKey, count,
+                Expiration.byDeltaSeconds(ESTIMATE_EXPIRATION_SECONDS));
+        return count;
+    }
+
+    private static String estimateCacheKey(ConferenceQueryForm conferenceQueryForm, Field field) {
+        List<String> filters = new ArrayList<>(0);
+        List<Filter> residualFilters = conferenceQueryForm.getResidualFilters(field);
+        for (Filter filter : conferenceQueryForm.getFilters()) {
+            if (!residualFilters.contains(filter)) {
+                filters.add(filter.getField() + " " + filter.getOperator() + " "
+                        + filter.getValue());
+            }
+        }
+        Collections.sort(filters);
+
+        StringBuilder canonical = new StringBuilder(field.name());
+        for (String filter : filters) {
+            canonical.append('\n').append(filter);
+        }
+        return Constants.MEMCACHE_CONFERENCE_ESTIMATE_PREFIX
+                + ConferenceQueryCache.sha1(canonical.toString());
+    }
+}
@@ -0,0 +1,301 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs Conference queries one page at a time.
+ *
+ * Page tokens are opaque to clients. They hold the inequality field run in the datastore and
+ * a datastore cursor for each of the queries the form is split into.
+ */
+public class ConferenceQueryService {
+
+    /**
+     * Number of items in a page when the client doesn't ask for a page size.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Largest number of items in a page.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Largest number of Conferences read for one page when some filters are applied in memory.
+     * A page which reaches it can have fewer items than the page size and still a next page.
+     */
+    static final int MAX_SCANNED = 1000;
+
+    private static final String TOKEN_SEPARATOR = ":";
+
+    /**
+     * Stands for a query in a page token which starts from its first result.
+     */
+    private static final String START_CURSOR = "";
+
+    /**
+     * Stands for a query in a page token which has no more results.
+     */
+    private static final String EXHAUSTED_CURSOR = "-";
+
+    /**
+     * Returns the page size to use for the given client supplied limit.
+     *
+     * @param limit the limit sent by the client, null when there is none.
+     * @return a page size between 1 and MAX_PAGE_SIZE.
+     */
+    public static int getPageSize(Integer limit) {
+        return limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Resumes the query from a page token returned by nextPageToken().
+     *
+     * @param query the query to resume.
+     * @param pageToken the page token, null for the first page.
+     * @return the query starting at the page.
+     * @throws IllegalArgumentException when the page token is invalid.
+     */
+    public static <T> Query<T> startAt(Query<T> query, String pageToken) {
+        return pageToken == null ? query : query.startAt(Cursor.fromWebSafeString(pageToken));
+    }
+
+    /**
+     * Returns the token of the page after the items read from the iterator.
+     *
+     * @param iterator the iterator of the query, after the page has been read.
+     * @param count the number of items read.
+     * @param pageSize the page size.
+     * @return the page token, or null when the query has no more results.
+     */
+    public static <T> String nextPageToken(QueryResultIterator<T> iterator, int count,
+                                           int pageSize) {
+        return count < pageSize ? null : iterator.getCursor().toWebSafeString();
+    }
+
+    /**
+     * Returns one page of the results of the given form.
+     *
+     * The keys of the page are cached in memcache, and a cached page is loaded by key, which
+     * Objectify serves from its own memcache layer for the @Cache Conference entities.
+     *
+     * @param conferenceQueryForm the filters and the page to return.
+     * @return the Conferences of the page with the token of the next page.
+     * @throws IllegalArgumentException when the filters or the page token are invalid.
+     */
+    public static CollectionResponse<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+        String cacheKey = ConferenceQueryCache.cacheKey(conferenceQueryForm);
+        ConferenceQueryCache.CachedPage cached = ConferenceQueryCache.get(cacheKey);
+        if (cached != null) {
+            return CollectionResponse.<Conference>builder()
+                    .setItems(loadConferences(cached.getWebsafeConferenceKeys()))
+                    .setNextPageToken(cached.getNextPageToken())
+                    .build();
+        }
+
+        CollectionResponse<Conference> page = runQuery(conferenceQueryForm);
+        List<String> websafeConferenceKeys = new ArrayList<>(page.getItems().size());
+        for (Conference conference : page.getItems()) {
+            websafeConferenceKeys.add(conference.getWebsafeKey());
+        }
+        ConferenceQueryCache.put(cacheKey, new ConferenceQueryCache.CachedPage(
+                websafeConferenceKeys, page.getNextPageToken()));
+        return page;
+    }
+
+    /**
+     * Loads the Conferences with the given keys in one batch, keeping their order and skipping
+     * the ones which have been deleted.
+     */
+    private static List<Conference> loadConferences(List<String> websafeConferenceKeys) {
+        List<Key<Conference>> keys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            keys.add(Key.<Conference>create(websafeConferenceKey));
+        }
+        Map<Key<Conference>, Conference> loaded = ofy().load().keys(keys);
+        List<Conference> conferences = new ArrayList<>(keys.size());
+        for (Key<Conference> key : keys) {
+            if (loaded.containsKey(key)) {
+                conferences.add(loaded.get(key));
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Runs the queries of the given form and returns one page of the results.
+     *
+     * The form can need several datastore queries, one for each value of an IN filter or each
+     * range around a != value. They are all started before any result is read, so they run
+     * concurrently, and their sorted results are merged, a Conference matching more than one of
+     * them being returned once: at the same position by each query it is read from all of them
+     * at once, and the results a query sorts elsewhere than the merged order are skipped, see
+     * ConferenceQueryForm.isFirstOccurrence(). The page token holds the cursor of each query.
+     *
+     * The inequality filters on the field chosen by ConferenceQueryPlanner run in the datastore,
+     * the ones on other fields are applied to the merged results. Reading stops as soon as the
+     * page is full, so the results keep the order of the datastore queries across pages. The
+     * chosen field is kept in the page token, so that all the pages of a query follow the same
+     * plan.
+     */
+    private static CollectionResponse<Conference> runQuery(ConferenceQueryForm conferenceQueryForm) {
+        int pageSize = getPageSize(conferenceQueryForm.getPageSize());
+
+        Field inequalityField;
+        String[] cursors = null;
+        String pageToken = conferenceQueryForm.getPageToken();
+        if (pageToken == null) {
+            inequalityField = ConferenceQueryPlanner.chooseInequalityField(conferenceQueryForm);
+        } else {
+            String[] parts = pageToken.split(TOKEN_SEPARATOR, -1);
+            inequalityField = parts[0].isEmpty() ? null : Field.valueOf(parts[0]);
+            cursors = Arrays.copyOfRange(parts, 1, parts.length);
+        }
+        List<Query<Conference>> queries = conferenceQueryForm.getQueries(inequalityField);
+        List<List<Filter>> queryFilters = conferenceQueryForm.getQueryFilters(inequalityField);
+        List<Filter> residualFilters = conferenceQueryForm.getResidualFilters(inequalityField);
+        Comparator<Conference> order = conferenceQueryForm.getOrder(inequalityField);
+        if (cursors != null && cursors.length != queries.size()) {
+            throw new IllegalArgumentException("Invalid page token: " + pageToken);
+        }
+
+        // Start all the queries first, so that their first batches are fetched concurrently.
+        List<MergedQuery> mergedQueries = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            String cursor = cursors == null ? START_CURSOR : cursors[i];
+            if (EXHAUSTED_CURSOR.equals(cursor)) {
+                continue;
+            }
+            Query<Conference> query = queries.get(i).chunk(pageSize);
+            if (!START_CURSOR.equals(cursor)) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            mergedQueries.add(new MergedQuery(i, cursor, query.iterator(), conferenceQueryForm,
+                    inequalityField, queryFilters.get(i)));
+        }
+        for (MergedQuery mergedQuery : mergedQueries) {
+            mergedQuery.advance();
+        }
+
+        List<Conference> conferences = new ArrayList<>(pageSize);
+        int scanned = 0;
+        while (conferences.size() < pageSize && scanned < MAX_SCANNED) {
+            MergedQuery first = null;
+            for (MergedQuery mergedQuery : mergedQueries) {
+                if (mergedQuery.head != null
+                        && (first == null || order.compare(mergedQuery.head, first.head) < 0)) {
+                    first = mergedQuery;
+                }
+            }
+            if (first == null) {
+                break;
+            }
+            Conference conference = first.head;
+            String websafeKey = conference.getWebsafeKey();
+            for (MergedQuery mergedQuery : mergedQueries) {
+                if (mergedQuery.head != null
+                        && websafeKey.equals(mergedQuery.head.getWebsafeKey())) {
+                    mergedQuery.advance();
+                }
+            }
+            scanned++;
+            if (matches(residualFilters, conference)) {
+                conferences.add(conference);
+            }
+        }
+
+        String[] nextCursors = new String[queries.size()];
+        Arrays.fill(nextCursors, EXHAUSTED_CURSOR);
+        boolean more = false;
+        for (MergedQuery mergedQuery : mergedQueries) {
+            if (mergedQuery.head != null) {
+                nextCursors[mergedQuery.index] = mergedQuery.cursor;
+                more = true;
+            }
+        }
+        String nextPageToken = null;
+        if (more) {
+            StringBuilder token = new StringBuilder(
+                    inequalityField == null ? "" : inequalityField.name());
+            for (String nextCursor : nextCursors) {
+                token.append(TOKEN_SEPARATOR).append(nextCursor);
+            }
+            nextPageToken = token.toString();
+        }
+
+        return CollectionResponse.<Conference>builder()
+                .setItems(conferences)
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
+    private static boolean matches(List<Filter> filters, Conference conference) {
+        for (Filter filter : filters) {
+            if (!filter.matches(conference)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One of the queries merged by runQuery(), with its next result read ahead.
+     */
+    private static class MergedQuery {
+        private final int index;
+        private final QueryResultIterator<Conference> iterator;
+        private final ConferenceQueryForm conferenceQueryForm;
+        private final Field inequalityField;
+        private final List<Filter> filters;
+
+        /**
+         * The next result, null when there are no more.
+         */
+        private Conference head;
+
+        /**
+         * The cursor just before head.
+         */
+        private String cursor;
+
+        private MergedQuery(int index, String cursor, QueryResultIterator<Conference> iterator,
+                            ConferenceQueryForm conferenceQueryForm, Field inequalityField,
+                            List<Filter> filters) {
+            this.index = index;
+            this.cursor = cursor;
+            this.iterator = iterator;
+            this.conferenceQueryForm = conferenceQueryForm;
+            this.inequalityField = inequalityField;
+            this.filters = filters;
+        }
+
+        /**
+         * Reads the next result which this query returns in the merged order.
+         */
+        private void advance() {
+            do {
+                if (head != null) {
+                    cursor = iterator.getCursor().toWebSafeString();
+                }
+                head = iterator.hasNext() ? iterator.next() : null;
+            } while (head != null
+                    && !conferenceQueryForm.isFirstOccurrence(inequalityField, filters, head));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceFacets.FacetCount;
+import com.google.devrel.training.conference.domain.CountedFacets;
+import com.google.devrel.training.conference.domain.Facet;
+import com.google.devrel.training.conference.domain.FacetCounterShard;
+import com.google.devrel.training.conference.domain.FacetValues;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counts the Conferences with each city, topic and start month in FacetCounterShards.
+ *
+ * Counts are updated by a task after a Conference is written, see scheduleUpdate(). The task
+ * compares the values of the Conference with the ones it is counted under in its CountedFacets,
+ * and moves the counts of the values which changed in the same transaction as it updates the
+ * CountedFacets, so running it again or out of order never counts a Conference twice.
+ */
+public class FacetCounter {
+
+    /**
+     * Number of shards of the counter of each value.
+     */
+    static final int SHARDS = 10;
+
+    /**
+     * The counts are cached for a short while, so they can lag behind the writes.
+     */
+    private static final int CACHE_EXPIRATION_SECONDS = 60;
+
+    /**
+     * Enqueues the task which updates the counts of the given Conference. Call after creating
+     * it or writing its city, topics or start date, inside the transaction when there is one so
+     * that the task only runs if the write is committed.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void scheduleUpdate(String websafeConferenceKey) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        TaskOptions task = TaskOptions.Builder.withUrl("/tasks/update_facet_counts")
+                .param("websafeConferenceKey", websafeConferenceKey);
+        if (ofy().getTransaction() != null) {
+            queue.add(ofy().getTransaction(), task);
+        } else {
+            queue.add(task);
+        }
+    }
+
+    /**
+     * Brings the counts of the given Conference up to date with its current city, topics and
+     * start month, or removes it from the counts when it no longer exists.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void updateCounts(final String websafeConferenceKey) {
+        Conference conference =
+                ofy().load().key(Key.<Conference>create(websafeConferenceKey)).now();
+
+        // One transaction per facet, which keeps the entity groups of each one well under the
+        // cross group limit however many topics change.
+        for (final Facet facet : Facet.values()) {
+            final Set<String> values = conference == null
+                    ? Collections.<String>emptySet() : facet.getValues(conference);
+            addFacetValues(facet, values);
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    CountedFacets counted = ofy().load()
+                            .key(Key.create(CountedFacets.class, websafeConferenceKey)).now();
+                    if (counted == null) {
+                        counted = new CountedFacets(websafeConferenceKey);
+                    }
+                    Set<String> countedValues = counted.getValues(facet);
+                    if (countedValues.equals(values)) {
+                        return;
+                    }
+
+                    Map<String, Long> deltas = new HashMap<>();
+                    for (String value : values) {
+                        if (!countedValues.contains(value)) {
+                            deltas.put(value, 1L);
+                        }
+                    }
+                    for (String value : countedValues) {
+                        if (!values.contains(value)) {
+                            deltas.put(value, -1L);
+                        }
+                    }
+
+                    // Update a random shard of each counter.
+                    Map<String, Integer> shardIndexes = new HashMap<>();
+                    List<Key<FacetCounterShard>> shardKeys = new ArrayList<>(deltas.size());
+                    for (String value : deltas.keySet()) {
+                        int index = ThreadLocalRandom.current().nextInt(SHARDS);
+                        shardIndexes.put(value, index);
+                        shardKeys.add(FacetCounterShard.createKey(facet, value, index));
+                    }
+                    Map<Key<FacetCounterShard>, FacetCounterShard> shards =
+                            ofy().load().keys(shardKeys);
+                    List<FacetCounterShard> toSave = new ArrayList<>(deltas.size());
+                    for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                        int index = shardIndexes.get(delta.getKey());
+                        FacetCounterShard shard = shards.get(
+                                FacetCounterShard.createKey(facet, delta.getKey(), index));
+                        if (shard == null) {
+                            shard = new FacetCounterShard(facet, delta.getKey(), index);
+                        }
+                        shard.increment(delta.getValue());
+                        toSave.add(shard);
+                    }
+                    counted.setValues(facet, values);
+                    ofy().save().entities(toSave);
+                    ofy().save().entity(counted);
+                }
+            });
+        }
+        if (conference == null) {
+            ofy().delete().type(CountedFacets.class).id(websafeConferenceKey).now();
+        }
+        MemcacheServiceFactory.getMemcacheService().delete(
+                Constants.MEMCACHE_CONFERENCE_FACETS_KEY);
+    }
+
+    /**
+     * Lists the given values in the FacetValues of the facet, if they are not there yet.
+     */
+    private static void addFacetValues(final Facet facet, final Set<String> values) {
+        final Key<FacetValues> facetValuesKey = Key.create(FacetValues.class, facet.name());
+        FacetValues facetValues = ofy().load().key(facetValuesKey).now();
+        if (facetValues != null && facetValues.getValues().containsAll(values)) {
+            return;
+        }
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                FacetValues facetValues = ofy().load().key(facetValuesKey).now();
+                if (facetValues == null) {
+                    facetValues = new FacetValues(facet);
+                }
+                if (facetValues.addValues(values)) {
+                    ofy().save().entity(facetValues);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of Conferences with each city, topic and start month.
+     *
+     * The counts come from memcache when they were read recently. Otherwise the values of the
+     * facets and then the shards of all their counters are read, each in one batch get.
+     *
+     * @return the counts, leaving out the values no Conference has.
+     */
+    public static ConferenceFacets getFacets() {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(Constants.MEMCACHE_CONFERENCE_FACETS_KEY);
+        if (cached instanceof ConferenceFacets) {
+            RpcAccounting.recordMemcacheHit();
+            return (ConferenceFacets) cached;
+        }
+
+        List<Key<FacetValues>> facetValuesKeys = new ArrayList<>(Facet.values().length);
+        for (Facet facet : Facet.values()) {
+            facetValuesKeys.add(Key.create(FacetValues.class, facet.name()));
+        }
+        Map<Key<FacetValues>, FacetValues> facetValues = ofy().load().keys(facetValuesKeys);
+
+        List<Key<FacetCounterShard>> shardKeys = new ArrayList<>(0);
+        for (FacetValues values : facetValues.values()) {
+            for (String value : values.getValues()) {
+                for (int index = 0; index < SHARDS; index++) {
+                    shardKeys.add(FacetCounterShard.createKey(values.getFacet(), value, index));
+                }
+            }
+        }
+        Map<Key<FacetCounterShard>, FacetCounterShard> shards = ofy().load().keys(shardKeys);
+
+        ConferenceFacets conferenceFacets = new ConferenceFacets();
+        for (FacetValues values : facetValues.values()) {
+            List<FacetCount> counts = new ArrayList<>(values.getValues().size());
+            for (String value : values.getValues()) {
+                long count = 0;
+                for (int index = 0; index < SHARDS; index++) {
+                    FacetCounterShard shard = shards.get(
+                            FacetCounterShard.createKey(values.getFacet(), value, index));
+                    if (shard != null) {
+                        count += shard.getCount();
+                    }
+                }
+                if (count > 0) {
+                    counts.add(new FacetCount(value, count));
+                }
+            }
+            Collections.sort(counts, new Comparator<FacetCount>() {
+                @Override
+                public int compare(FacetCount count1, FacetCount count2) {
+                    int comparison = Long.compare(count2.getCount(), count1.getCount());
+                    return comparison != 0
+                            ? comparison : count1.getValue().compareTo(count2.getValue());
+                }
+            });
+            conferenceFacets.setCounts(values.getFacet(), counts);
+        }
+
+        memcacheService.put(Constants.MEMCACHE_CONFERENCE_FACETS_KEY, conferenceFacets,
+                Expiration.byDeltaSeconds(CACHE_EXPIRATION_SECONDS));
+        return conferenceFacets;
+    }
+}
@@ -0,0 +1,203 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreAttributes;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * An AsyncDatastoreService which passes every call to another one, for the wrappers OfyService
+ * installs around the datastore to override only what they change.
+ *
+ * Wrappers which hand out their own Transactions override unwrap() to give the delegate back
+ * the Transaction it created.
+ */
+abstract class ForwardingDatastoreService implements AsyncDatastoreService {
+
+    private final AsyncDatastoreService delegate;
+
+    ForwardingDatastoreService(AsyncDatastoreService delegate) {
+        this.delegate = delegate;
+    }
+
+    protected AsyncDatastoreService delegate() {
+        return delegate;
+    }
+
+    protected Transaction unwrap(Transaction txn) {
+        return txn;
+    }
+
+    @Override
+    public Future<Entity> get(Key key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public Future<Entity> get(Transaction txn, Key key) {
+        return delegate.get(unwrap(txn), key);
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Iterable<Key> keys) {
+        return delegate.get(keys);
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Transaction txn, Iterable<Key> keys) {
+        return delegate.get(unwrap(txn), keys);
+    }
+
+    @Override
+    public Future<Key> put(Entity entity) {
+        return delegate.put(entity);
+    }
+
+    @Override
+    public Future<Key> put(Transaction txn, Entity entity) {
+        return delegate.put(unwrap(txn), entity);
+    }
+
+    @Override
+    public Future<List<Key>> put(Iterable<Entity> entities) {
+        return delegate.put(entities);
+    }
+
+    @Override
+    public Future<List<Key>> put(Transaction txn, Iterable<Entity> entities) {
+        return delegate.put(unwrap(txn), entities);
+    }
+
+    @Override
+    public Future<Void> delete(Key... keys) {
+        return delete(Arrays.asList(keys));
+    }
+
+    @Override
+    public Future<Void> delete(Transaction txn, Key... keys) {
+        return delete(txn, Arrays.asList(keys));
+    }
+
+    @Override
+    public Future<Void> delete(Iterable<Key> keys) {
+        return delegate.delete(keys);
+    }
+
+    @Override
+    public Future<Void> delete(Transaction txn, Iterable<Key> keys) {
+        return delegate.delete(unwrap(txn), keys);
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction() {
+        return delegate.beginTransaction();
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction(TransactionOptions options) {
+        return delegate.beginTransaction(options);
+    }
+
+    @Override
+    public Future<KeyRange> allocateIds(String kind, long num) {
+        return delegate.allocateIds(kind, num);
+    }
+
+    @Override
+    public Future<KeyRange> allocateIds(Key parent, String kind, long num) {
+        return delegate.allocateIds(parent, kind, num);
+    }
+
+    @Override
+    public Future<DatastoreAttributes> getDatastoreAttributes() {
+        return delegate.getDatastoreAttributes();
+    }
+
+    @Override
+    public Future<Map<Index, Index.IndexState>> getIndexes() {
+        return delegate.getIndexes();
+    }
+
+    @Override
+    public PreparedQuery prepare(Query query) {
+        return delegate.prepare(query);
+    }
+
+    @Override
+    public PreparedQuery prepare(Transaction txn, Query query) {
+        return delegate.prepare(unwrap(txn), query);
+    }
+
+    @Override
+    public Transaction getCurrentTransaction() {
+        return delegate.getCurrentTransaction();
+    }
+
+    @Override
+    public Transaction getCurrentTransaction(Transaction returnedIfNoTxn) {
+        return delegate.getCurrentTransaction(returnedIfNoTxn);
+    }
+
+    @Override
+    public Collection<Transaction> getActiveTransactions() {
+        return delegate.getActiveTransactions();
+    }
+
+    /**
+     * A Transaction which passes every call to the Transaction created by the delegate.
+     */
+    static class ForwardingTransaction implements Transaction {
+        final Transaction raw;
+
+        ForwardingTransaction(Transaction raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public void commit() {
+            raw.commit();
+        }
+
+        @Override
+        public Future<Void> commitAsync() {
+            return raw.commitAsync();
+        }
+
+        @Override
+        public void rollback() {
+            raw.rollback();
+        }
+
+        @Override
+        public Future<Void> rollbackAsync() {
+            return raw.rollbackAsync();
+        }
+
+        @Override
+        public String getId() {
+            return raw.getId();
+        }
+
+        @Override
+        public String getApp() {
+            return raw.getApp();
+        }
+
+        @Override
+        public boolean isActive() {
+            return raw.isActive();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.googlecode.objectify.Key;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Hands out datastore IDs from blocks reserved in advance, so that creating an entity usually
+ * doesn't wait for an allocateIds RPC.
+ *
+ * IDs allocated under a parent are only unique under that parent, so there is a pool for each
+ * kind and parent. When a pool runs low, the next block is requested asynchronously and only
+ * waited for once the current block is used up. IDs left in a pool dropped from memory or
+ * lost with the instance are never used, which the datastore allows.
+ */
+public class IdAllocator {
+
+    /**
+     * Number of IDs reserved at once for a kind without parent.
+     */
+    static final int ROOT_BLOCK_SIZE = 50;
+
+    /**
+     * Number of IDs reserved at once for a kind under one parent, smaller as a parent usually
+     * gets fewer children.
+     */
+    static final int CHILD_BLOCK_SIZE = 10;
+
+    /**
+     * The next block is requested when this many IDs are left.
+     */
+    static final double LOW_WATERMARK_FRACTION = 0.2;
+
+    private static final int MAX_POOLS = 1000;
+
+    private static final LoadingCache<PoolKey, IdPool> pools = CacheBuilder.newBuilder()
+            .maximumSize(MAX_POOLS)
+            .build(new CacheLoader<PoolKey, IdPool>() {
+                @Override
+                public IdPool load(PoolKey poolKey) {
+                    return new IdPool(poolKey);
+                }
+            });
+
+    /**
+     * Returns a new key of the given kind without parent.
+     */
+    public static <T> Key<T> allocateId(Class<T> clazz) {
+        return Key.create(clazz, take(new PoolKey(null, Key.getKind(clazz))));
+    }
+
+    /**
+     * Returns a new key of the given kind under the given parent.
+     */
+    public static <T> Key<T> allocateId(Key<?> parent, Class<T> clazz) {
+        return Key.create(parent, clazz, take(new PoolKey(parent.getRaw(), Key.getKind(clazz))));
+    }
+
+    /**
+     * Drops every pool and pending block request, so that IDs are allocated afresh. The
+     * blocks of a pool belong to one datastore, so tests call this when they reset theirs.
+     */
+    public static void reset() {
+        pools.invalidateAll();
+    }
+
+    private static long take(PoolKey poolKey) {
+        return pools.getUnchecked(poolKey).take();
+    }
+
+    /**
+     * The kind and parent of a pool.
+     */
+    private static class PoolKey {
+        private final com.google.appengine.api.datastore.Key parent;
+        private final String kind;
+
+        private PoolKey(com.google.appengine.api.datastore.Key parent, String kind) {
+            this.parent = parent;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) o;
+            return kind.equals(other.kind)
+                    && (parent == null ? other.parent == null : parent.equals(other.parent));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + (parent == null ? 0 : parent.hashCode());
+        }
+    }
+
+    /**
+     * The IDs reserved for one kind and parent: the current block and the request for the next.
+     */
+    private static class IdPool {
+        private final PoolKey poolKey;
+        private final int blockSize;
+        private final int lowWatermark;
+
+        private long next = 1;
+        private long end = 0;
+        private Future<KeyRange> refill;
+
+        private IdPool(PoolKey poolKey) {
+            this.poolKey = poolKey;
+            this.blockSize = poolKey.parent == null ? ROOT_BLOCK_SIZE : CHILD_BLOCK_SIZE;
+            this.lowWatermark = (int) Math.ceil(blockSize * LOW_WATERMARK_FRACTION);
+        }
+
+        private synchronized long take() {
+            if (next > end) {
+                KeyRange range = awaitRefill();
+                next = range.getStart().getId();
+                end = range.getEnd().getId();
+            }
+            long id = next++;
+            if (end - next + 1 <= lowWatermark && refill == null) {
+                refill = requestBlock();
+            }
+            return id;
+        }
+
+        private KeyRange awaitRefill() {
+            Future<KeyRange> pending = refill == null ? requestBlock() : refill;
+            refill = null;
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                // A failed background request is retried once in the foreground.
+                try {
+                    return requestBlock().get();
+                } catch (InterruptedException retryException) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(retryException);
+                } catch (ExecutionException retryException) {
+                    throw new IllegalStateException(retryException.getCause());
+                }
+            }
+        }
+
+        private Future<KeyRange> requestBlock() {
+            return DatastoreServiceFactory.getAsyncDatastoreService()
+                    .allocateIds(poolKey.parent, poolKey.kind, blockSize);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds which many threads can record into without locks.
+ *
+ * Values are counted in log-linear buckets: exact below 8, then 8 buckets for each power of 2,
+ * so that a bucket is at most 12.5% wide. Recording a value increments two counters and
+ * allocates nothing.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param micros the latency in microseconds; negative values are recorded as 0.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketIndex(value));
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns a copy of the counts. Values recorded while it is taken may or may not be in it.
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new Snapshot(snapshotCounts, max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + exponent * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in the bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << exponent;
+        return lowerBound + (1L << exponent) - 1;
+    }
+
+    /**
+     * The counts of a histogram at one point in time. Snapshots of the same endpoint taken on
+     * several instances can be merged.
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] counts;
+
+        private final long max;
+
+        private Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+        }
+
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKETS], 0);
+        }
+
+        /**
+         * Returns a snapshot with the counts of both snapshots.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the latency below which the given fraction of the values fall, rounded up to
+         * the end of its bucket and never more than the max.
+         *
+         * @param quantile the fraction, between 0 and 1.
+         * @return the latency in microseconds, 0 when nothing was recorded.
+         */
+        public long getPercentile(double quantile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The latency histograms of this instance, one for each endpoint and outcome.
+ *
+ * The outcome of a request is "ok" or the simple name of the exception it failed with. Once a
+ * minute the histograms of the instance are copied to memcache, where getAggregatedSnapshot()
+ * merges the copies of all the instances.
+ */
+public class LatencyMetrics {
+
+    private static final Logger LOG = Logger.getLogger(LatencyMetrics.class.getName());
+
+    public static final String OK = "ok";
+
+    static final long FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * Snapshots of instances which stopped flushing expire after this long.
+     */
+    private static final int SNAPSHOT_EXPIRATION_SECONDS = 10 * 60;
+
+    private static final int MAX_INSTANCES_UPDATE_TRIES = 5;
+
+    private static final String INSTANCE_ID = UUID.randomUUID().toString();
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms =
+            new ConcurrentHashMap<>();
+
+    private static final AtomicLong lastFlushMillis = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Records the latency of one request and flushes the histograms to memcache when they were
+     * last flushed more than a minute ago.
+     *
+     * @param endpoint the name of the endpoint method or servlet.
+     * @param outcome OK or the simple name of the exception.
+     * @param micros the latency in microseconds.
+     */
+    public static void record(String endpoint, String outcome, long micros) {
+        ConcurrentMap<String, LatencyHistogram> outcomes = histograms.get(endpoint);
+        if (outcomes == null) {
+            ConcurrentMap<String, LatencyHistogram> created = new ConcurrentHashMap<>();
+            outcomes = histograms.putIfAbsent(endpoint, created);
+            if (outcomes == null) {
+                outcomes = created;
+            }
+        }
+        LatencyHistogram histogram = outcomes.get(outcome);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = outcomes.putIfAbsent(outcome, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(micros);
+
+        long now = System.currentTimeMillis();
+        long last = lastFlushMillis.get();
+        if (now - last >= FLUSH_INTERVAL_MILLIS && lastFlushMillis.compareAndSet(last, now)) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to flush the latency histograms", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the histograms of this instance, by endpoint and then outcome, sorted by name.
+     */
+    public static Map<String, Map<String, LatencyHistogram.Snapshot>> getSnapshot() {
+        Map<String, Map<String, LatencyHistogram.Snapshot>> snapshot = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> endpoint
+                : histograms.entrySet()) {
+            Map<String, LatencyHistogram.Snapshot> outcomes = new TreeMap<>();
+            for (Map.Entry<String, LatencyHistogram> outcome : endpoint.getValue().entrySet()) {
+                outcomes.put(outcome.getKey(), outcome.getValue().snapshot());
+            }
+            snapshot.put(endpoint.getKey(), outcomes);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the sum of the histograms last flushed to memcache by every instance, with the
+     * current histograms of this instance instead of its flushed ones.
+     */
+    public static Map<String, Map<String, LatencyHistogram.Snapshot>> getAggregatedSnapshot() {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Set<String> snapshotKeys = new HashSet<>();
+        for (String instanceId : getInstanceIds(memcacheService)) {
+            if (!instanceId.equals(INSTANCE_ID)) {
+                snapshotKeys.add(Constants.MEMCACHE_LATENCY_SNAPSHOT_PREFIX + instanceId);
+            }
+        }
+        Map<String, Map<String, LatencyHistogram.Snapshot>> aggregated = getSnapshot();
+        for (Object cached : memcacheService.getAll(snapshotKeys).values()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Map<String, LatencyHistogram.Snapshot>> instanceSnapshot =
+                    (Map<String, Map<String, LatencyHistogram.Snapshot>>) cached;
+            for (Map.Entry<String, Map<String, LatencyHistogram.Snapshot>> endpoint
+                    : instanceSnapshot.entrySet()) {
+                Map<String, LatencyHistogram.Snapshot> outcomes = aggregated.get(endpoint.getKey());
+                if (outcomes == null) {
+                    outcomes = new TreeMap<>();
+                    aggregated.put(endpoint.getKey(), outcomes);
+                }
+                for (Map.Entry<String, LatencyHistogram.Snapshot> outcome
+                        : endpoint.getValue().entrySet()) {
+                    LatencyHistogram.Snapshot merged = outcomes.get(outcome.getKey());
+                    outcomes.put(outcome.getKey(), merged == null ? outcome.getValue()
+                            : merged.merge(outcome.getValue()));
+                }
+            }
+        }
+        return aggregated;
+    }
+
+    /**
+     * Copies the histograms of this instance to memcache and adds the instance to the list of
+     * instances with a snapshot.
+     */
+    public static void flush() {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        memcacheService.put(Constants.MEMCACHE_LATENCY_SNAPSHOT_PREFIX + INSTANCE_ID,
+                new TreeMap<>(getSnapshot()),
+                Expiration.byDeltaSeconds(SNAPSHOT_EXPIRATION_SECONDS));
+
+        // The list is shared by all the instances, so it is updated with compare and set.
+        for (int i = 0; i < MAX_INSTANCES_UPDATE_TRIES; i++) {
+            MemcacheService.IdentifiableValue identifiable =
+                    memcacheService.getIdentifiable(Constants.MEMCACHE_LATENCY_INSTANCES_KEY);
+            if (identifiable == null) {
+                HashSet<String> instanceIds = new HashSet<>();
+                instanceIds.add(INSTANCE_ID);
+                if (memcacheService.put(Constants.MEMCACHE_LATENCY_INSTANCES_KEY, instanceIds,
+                        null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return;
+                }
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            HashSet<String> instanceIds = new HashSet<>((Set<String>) identifiable.getValue());
+            // Drop the instances whose snapshot has expired.
+            Set<String> expired = new HashSet<>(instanceIds);
+            expired.remove(INSTANCE_ID);
+            Set<String> snapshotKeys = new HashSet<>();
+            for (String instanceId : expired) {
+                snapshotKeys.add(Constants.MEMCACHE_LATENCY_SNAPSHOT_PREFIX + instanceId);
+            }
+            for (String snapshotKey : memcacheService.getAll(snapshotKeys).keySet()) {
+                expired.remove(snapshotKey.substring(
+                        Constants.MEMCACHE_LATENCY_SNAPSHOT_PREFIX.length()));
+            }
+            if (instanceIds.contains(INSTANCE_ID) && expired.isEmpty()) {
+                return;
+            }
+            instanceIds.removeAll(expired);
+            instanceIds.add(INSTANCE_ID);
+            if (memcacheService.putIfUntouched(Constants.MEMCACHE_LATENCY_INSTANCES_KEY,
+                    identifiable, instanceIds)) {
+                return;
+            }
+        }
+        LOG.warning("Gave up adding " + INSTANCE_ID + " to the latency snapshot instances");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> getInstanceIds(MemcacheService memcacheService) {
+        Object instanceIds = memcacheService.get(Constants.MEMCACHE_LATENCY_INSTANCES_KEY);
+        return instanceIds == null ? new HashSet<String>() : (Set<String>) instanceIds;
+    }
+}
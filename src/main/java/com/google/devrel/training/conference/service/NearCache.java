@@ -0,0 +1,188 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.Constants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The instance-local cache of the Conference and Profile entities, in front of Objectify's
+ * memcache layer.
+ *
+ * A write on this instance removes the written entities at once. Writes on other instances
+ * are noticed through version numbers in memcache, one per bucket of keys, which every write
+ * increments for the buckets of its keys. They are read together at most every
+ * VERSION_CHECK_INTERVAL_MILLIS, and the entities of the buckets whose version changed are
+ * dropped. So an entity written elsewhere can be served for that long after the write, and
+ * frequent writes of one conference only drop the entities sharing its bucket.
+ */
+public class NearCache {
+
+    static final Set<String> KINDS = ImmutableSet.of("Conference", "Profile");
+
+    private static final int MAX_ENTITIES = 10000;
+
+    private static final int EXPIRATION_SECONDS = 60;
+
+    static final long VERSION_CHECK_INTERVAL_MILLIS = 300;
+
+    /**
+     * Number of buckets the keys are hashed into, each with its version.
+     */
+    static final int VERSION_BUCKETS = 64;
+
+    private static final List<String> versionKeys = new ArrayList<>(VERSION_BUCKETS);
+
+    static {
+        for (int bucket = 0; bucket < VERSION_BUCKETS; bucket++) {
+            versionKeys.add(versionKey(bucket));
+        }
+    }
+
+    private static final Cache<Key, Entity> entities = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTITIES)
+            .expireAfterWrite(EXPIRATION_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    private static final AtomicLong lastVersionCheckMillis = new AtomicLong();
+
+    private static final AtomicLongArray versions = new AtomicLongArray(VERSION_BUCKETS);
+
+    /**
+     * Incremented by every local invalidation, so that an entity read before it is not put in
+     * the cache after it.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong versionChanges = new AtomicLong();
+
+    static boolean isCached(Key key) {
+        return key.isComplete() && KINDS.contains(key.getKind());
+    }
+
+    /**
+     * Returns the version bucket of a key, the same on every instance.
+     */
+    static int bucket(Key key) {
+        return (KeyFactory.keyToString(key).hashCode() & Integer.MAX_VALUE) % VERSION_BUCKETS;
+    }
+
+    static String versionKey(int bucket) {
+        return Constants.MEMCACHE_NEAR_CACHE_VERSION_PREFIX + bucket;
+    }
+
+    /**
+     * Returns a copy of the cached entity, or null when it is not cached.
+     */
+    static Entity get(Key key) {
+        checkVersion();
+        Entity entity = entities.getIfPresent(key);
+        return entity == null ? null : entity.clone();
+    }
+
+    /**
+     * Returns the generation to pass to put() for an entity about to be read.
+     */
+    static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches a copy of an entity read when getGeneration() returned the given generation,
+     * unless an invalidation happened since.
+     */
+    static void put(Entity entity, long readGeneration) {
+        Key key = entity.getKey();
+        if (!isCached(key)) {
+            return;
+        }
+        entities.put(key, entity.clone());
+        if (generation.get() != readGeneration) {
+            entities.invalidate(key);
+        }
+    }
+
+    /**
+     * Removes the entities from the cache of this instance and makes the other instances drop
+     * the buckets of those of a cached kind.
+     */
+    static void invalidate(Iterable<Key> keys) {
+        Set<String> changedVersionKeys = new HashSet<>();
+        for (Key key : keys) {
+            if (isCached(key)) {
+                changedVersionKeys.add(versionKey(bucket(key)));
+                entities.invalidate(key);
+            }
+        }
+        if (!changedVersionKeys.isEmpty()) {
+            generation.incrementAndGet();
+            MemcacheServiceFactory.getMemcacheService().incrementAll(
+                    changedVersionKeys, 1L, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Drops every entity cached on this instance.
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        entities.invalidateAll();
+    }
+
+    private static void checkVersion() {
+        long now = System.currentTimeMillis();
+        long last = lastVersionCheckMillis.get();
+        if (now - last < VERSION_CHECK_INTERVAL_MILLIS
+                || !lastVersionCheckMillis.compareAndSet(last, now)) {
+            return;
+        }
+        // Incrementing by 0 reads the versions, and sets those which have been evicted.
+        Map<String, Long> current = MemcacheServiceFactory.getMemcacheService().incrementAll(
+                versionKeys, 0L, now);
+        Set<Integer> changedBuckets = new HashSet<>();
+        for (int bucket = 0; bucket < VERSION_BUCKETS; bucket++) {
+            Long bucketVersion = current.get(versionKeys.get(bucket));
+            long value = bucketVersion == null ? 0 : bucketVersion;
+            if (bucketVersion == null || versions.getAndSet(bucket, value) != value) {
+                changedBuckets.add(bucket);
+            }
+        }
+        if (changedBuckets.isEmpty()) {
+            return;
+        }
+        generation.incrementAndGet();
+        for (Iterator<Key> keys = entities.asMap().keySet().iterator(); keys.hasNext(); ) {
+            if (changedBuckets.contains(bucket(keys.next()))) {
+                keys.remove();
+            }
+        }
+        versionChanges.addAndGet(changedBuckets.size());
+    }
+
+    public static CacheStats getStats() {
+        return entities.stats();
+    }
+
+    /**
+     * Returns the number of times a bucket was dropped because of a write on another instance.
+     */
+    public static long getVersionChanges() {
+        return versionChanges.get();
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.utils.FutureWrapper;
+import com.google.common.util.concurrent.Futures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * An AsyncDatastoreService which serves the reads outside transactions from NearCache and
+ * invalidates it on writes.
+ *
+ * Writes outside transactions invalidate the entities before and after they are applied;
+ * writes in a transaction invalidate them when they are made and again once it commits.
+ */
+class NearCacheDatastoreService extends ForwardingDatastoreService {
+
+    NearCacheDatastoreService(AsyncDatastoreService delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected Transaction unwrap(Transaction txn) {
+        return txn instanceof NearCacheTransaction ? ((NearCacheTransaction) txn).raw : txn;
+    }
+
+    @Override
+    public Future<Entity> get(Key key) {
+        return get(null, key);
+    }
+
+    @Override
+    public Future<Entity> get(Transaction txn, final Key key) {
+        if (txn != null || !NearCache.isCached(key)) {
+            return super.get(txn, key);
+        }
+        Entity cached = NearCache.get(key);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        final long generation = NearCache.getGeneration();
+        return new FutureWrapper<Entity, Entity>(super.get(null, key)) {
+            @Override
+            protected Entity wrap(Entity entity) {
+                NearCache.put(entity, generation);
+                return entity;
+            }
+
+            @Override
+            protected Throwable convertException(Throwable cause) {
+                return cause;
+            }
+        };
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Iterable<Key> keys) {
+        return get(null, keys);
+    }
+
+    @Override
+    public Future<Map<Key, Entity>> get(Transaction txn, Iterable<Key> keys) {
+        if (txn != null) {
+            return super.get(txn, keys);
+        }
+        final Map<Key, Entity> found = new HashMap<>();
+        List<Key> missing = new ArrayList<>();
+        for (Key key : keys) {
+            Entity cached = NearCache.isCached(key) ? NearCache.get(key) : null;
+            if (cached != null) {
+                found.put(key, cached);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return Futures.immediateFuture(found);
+        }
+        final long generation = NearCache.getGeneration();
+        return new FutureWrapper<Map<Key, Entity>, Map<Key, Entity>>(super.get(null, missing)) {
+            @Override
+            protected Map<Key, Entity> wrap(Map<Key, Entity> loaded) {
+                for (Entity entity : loaded.values()) {
+                    NearCache.put(entity, generation);
+                }
+                found.putAll(loaded);
+                return found;
+            }
+
+            @Override
+            protected Throwable convertException(Throwable cause) {
+                return cause;
+            }
+        };
+    }
+
+    @Override
+    public Future<Key> put(Entity entity) {
+        return put(null, entity);
+    }
+
+    @Override
+    public Future<Key> put(Transaction txn, Entity entity) {
+        final List<Key> keys = Collections.singletonList(entity.getKey());
+        written(txn, keys);
+        Future<Key> future = super.put(txn, entity);
+        return txn != null ? future : new InvalidatingFuture<Key>(future, keys);
+    }
+
+    @Override
+    public Future<List<Key>> put(Iterable<Entity> entities) {
+        return put(null, entities);
+    }
+
+    @Override
+    public Future<List<Key>> put(Transaction txn, Iterable<Entity> entities) {
+        List<Key> keys = new ArrayList<>();
+        for (Entity entity : entities) {
+            keys.add(entity.getKey());
+        }
+        written(txn, keys);
+        Future<List<Key>> future = super.put(txn, entities);
+        return txn != null ? future : new InvalidatingFuture<List<Key>>(future, keys);
+    }
+
+    @Override
+    public Future<Void> delete(Iterable<Key> keys) {
+        return delete(null, keys);
+    }
+
+    @Override
+    public Future<Void> delete(Transaction txn, Iterable<Key> keys) {
+        written(txn, keys);
+        Future<Void> future = super.delete(txn, keys);
+        return txn != null ? future : new InvalidatingFuture<Void>(future, keys);
+    }
+
+    private static void written(Transaction txn, Iterable<Key> keys) {
+        NearCache.invalidate(keys);
+        if (txn instanceof NearCacheTransaction) {
+            for (Key key : keys) {
+                ((NearCacheTransaction) txn).written.add(key);
+            }
+        }
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction() {
+        return wrap(super.beginTransaction());
+    }
+
+    @Override
+    public Future<Transaction> beginTransaction(TransactionOptions options) {
+        return wrap(super.beginTransaction(options));
+    }
+
+    private static Future<Transaction> wrap(Future<Transaction> transaction) {
+        return new FutureWrapper<Transaction, Transaction>(transaction) {
+            @Override
+            protected Transaction wrap(Transaction raw) {
+                return new NearCacheTransaction(raw);
+            }
+
+            @Override
+            protected Throwable convertException(Throwable cause) {
+                return cause;
+            }
+        };
+    }
+
+    /**
+     * A write outside a transaction, which invalidates the written entities once applied.
+     */
+    private static class InvalidatingFuture<T> extends FutureWrapper<T, T> {
+        private final Iterable<Key> keys;
+
+        private InvalidatingFuture(Future<T> future, Iterable<Key> keys) {
+            super(future);
+            this.keys = keys;
+        }
+
+        @Override
+        protected T wrap(T result) {
+            NearCache.invalidate(keys);
+            return result;
+        }
+
+        @Override
+        protected Throwable convertException(Throwable cause) {
+            NearCache.invalidate(keys);
+            return cause;
+        }
+    }
+
+    /**
+     * A Transaction which invalidates the entities written in it once it commits.
+     */
+    private static class NearCacheTransaction extends ForwardingTransaction {
+        private final Set<Key> written = new HashSet<>();
+
+        private NearCacheTransaction(Transaction raw) {
+            super(raw);
+        }
+
+        @Override
+        public void commit() {
+            try {
+                super.commit();
+            } finally {
+                NearCache.invalidate(written);
+            }
+        }
+
+        @Override
+        public Future<Void> commitAsync() {
+            return new InvalidatingFuture<Void>(super.commitAsync(), written);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceConfig;
 import com.google.devrel.training.conference.domain.*;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
@@ -13,11 +15,22 @@ public class OfyService {
      * This static block ensure the entity registration.
      */
     static {
+        ObjectifyService.setFactory(new AccountingObjectifyFactory());
         factory().register(Profile.class);
         factory().register(Conference.class);
         factory().register(AppEngineUser.class);
         factory().register(Session.class);
         factory().register(Speaker.class);
+        factory().register(SeatShard.class);
+        factory().register(Registration.class);
+        factory().register(PostingList.class);
+        factory().register(SearchDocument.class);
+        factory().register(FacetCounterShard.class);
+        factory().register(FacetValues.class);
+        factory().register(CountedFacets.class);
+        factory().register(RegistrationOutcome.class);
+        factory().register(WaitlistEntry.class);
+        factory().register(SeatHold.class);
     }
 
     /**
@@ -29,6 +42,27 @@ public class OfyService {
         return ObjectifyService.ofy();
     }
 
+    /**
+     * Records the datastore calls of every Objectify in RpcAccounting, both those reaching the
+     * datastore and those reaching the memcache layer, and puts NearCache in front of the
+     * memcache layer.
+     */
+    private static class AccountingObjectifyFactory extends ObjectifyFactory {
+        @Override
+        public AsyncDatastoreService createAsyncDatastoreService(DatastoreServiceConfig cfg,
+                                                                 boolean globalCache) {
+            AsyncDatastoreService ads = new AccountingDatastoreService(
+                    super.createAsyncDatastoreService(cfg, globalCache), true);
+            return globalCache ? new NearCacheDatastoreService(ads) : ads;
+        }
+
+        @Override
+        protected AsyncDatastoreService createRawAsyncDatastoreService(
+                DatastoreServiceConfig cfg) {
+            return new AccountingDatastoreService(super.createRawAsyncDatastoreService(cfg), false);
+        }
+    }
+
     /**
      * Use this static method for getting the Objectify service factory.
      * @return ObjectifyFactory.
@@ -0,0 +1,230 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ingests registrations written behind the request, when the ingestion mode is "queued".
+ *
+ * registerForConference then only enqueues a pull task tagged with the websafe key of the
+ * conference, and a worker scheduled per conference leases the tasks of one conference in
+ * batches and registers each batch with RegistrationService.registerAll(), booking the seats of
+ * up to 20 users in one transaction instead of one transaction per user. The outcome of each registration is kept
+ * in memcache for the status endpoint until the Registration itself can be read.
+ */
+public class RegistrationIngestion {
+
+    private static final Logger LOG = Logger.getLogger(RegistrationIngestion.class.getName());
+
+    /**
+     * The system property selecting the ingestion mode, "direct" or "queued".
+     */
+    public static final String MODE_PROPERTY = "conference.registration.ingestion";
+
+    public static final String QUEUED = "queued";
+
+    /**
+     * The status of a registration enqueued and not ingested yet.
+     */
+    public static final String PENDING = "Registration pending";
+
+    /**
+     * The pull queue of the registrations, see queue.xml.
+     */
+    static final String QUEUE_NAME = "registration-ingest";
+
+    /**
+     * Number of registrations leased and registered at once.
+     */
+    static final int LEASE_SIZE = 500;
+
+    /**
+     * How long the registrations leased stay invisible to other workers. A worker which fails
+     * leaves its registrations to the next one after that.
+     */
+    private static final int LEASE_SECONDS = 60;
+
+    /**
+     * Number of leases taken by one worker before it hands over to the next one.
+     */
+    static final int MAX_LEASES_PER_TASK = 10;
+
+    /**
+     * Delay before the worker runs, so that the registrations enqueued meanwhile are ingested
+     * together.
+     */
+    private static final int INGEST_DELAY_SECONDS = 1;
+
+    /**
+     * How long the status of a registration is kept in memcache.
+     */
+    private static final int STATUS_EXPIRATION_SECONDS = 60 * 60;
+
+    /**
+     * Returns whether registrations are ingested from the pull queue.
+     */
+    public static boolean isEnabled() {
+        return QUEUED.equals(System.getProperty(MODE_PROPERTY));
+    }
+
+    /**
+     * Enqueues the registration of the given user for the given Conference and schedules the
+     * worker ingesting it.
+     *
+     * @param userId the userId of the user.
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void enqueue(final String userId, final Key<Conference> conferenceKey) {
+        MemcacheServiceFactory.getMemcacheService().put(statusKey(userId, conferenceKey), PENDING,
+                Expiration.byDeltaSeconds(STATUS_EXPIRATION_SECONDS));
+        QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder
+                .withMethod(TaskOptions.Method.PULL)
+                .tag(conferenceKey.getString())
+                .param("userId", userId));
+        scheduleWorker(conferenceKey);
+    }
+
+    /**
+     * Schedules the worker ingesting the registrations of the given Conference, unless one is
+     * already pending.
+     */
+    private static void scheduleWorker(final Key<Conference> conferenceKey) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String pendingKey = Constants.MEMCACHE_REGISTRATION_INGEST_PREFIX + conferenceKey.getString();
+        // The worker runs after the marker expires, so registrations enqueued while the marker
+        // is present are still picked up by the pending worker.
+        boolean added = memcacheService.put(pendingKey, Boolean.TRUE,
+                Expiration.byDeltaSeconds(INGEST_DELAY_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        if (added) {
+            QueueFactory.getDefaultQueue().add(workerTask(conferenceKey)
+                    .countdownMillis((INGEST_DELAY_SECONDS + 1) * 1000L));
+        }
+    }
+
+    private static TaskOptions workerTask(final Key<Conference> conferenceKey) {
+        return TaskOptions.Builder.withUrl("/tasks/ingest_registrations")
+                .param("websafeConferenceKey", conferenceKey.getString());
+    }
+
+    /**
+     * Ingests the registrations enqueued for the given Conference, LEASE_SIZE at a time, and
+     * records their outcome. Enqueues another worker when there are more than
+     * MAX_LEASES_PER_TASK leases to ingest.
+     *
+     * Only the registrations with a definite outcome are deleted from the queue. The ones whose
+     * outcome is unknown, like those of a worker which fails, stay PENDING and are ingested again
+     * once their lease expires; registerAll() then finds them registered already or books their
+     * seats then.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the number of registrations ingested, successful or not, including the ones left
+     *     to ingest again.
+     */
+    public static int ingest(final Key<Conference> conferenceKey) {
+        Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+        Conference conference = SeatCounter.ensureShards(conferenceKey);
+        int ingested = 0;
+        for (int leases = 0; leases < MAX_LEASES_PER_TASK; leases++) {
+            List<TaskHandle> tasks = queue.leaseTasksByTag(
+                    LEASE_SECONDS, TimeUnit.SECONDS, LEASE_SIZE, conferenceKey.getString());
+            if (tasks.isEmpty()) {
+                return ingested;
+            }
+
+            // A user enqueued twice is registered once.
+            Map<String, String> userIds = new LinkedHashMap<>(tasks.size());
+            List<String> taskUserIds = new ArrayList<>(tasks.size());
+            for (TaskHandle task : tasks) {
+                String userId = getUserId(task);
+                taskUserIds.add(userId);
+                if (userId != null) {
+                    userIds.put(userId, null);
+                }
+            }
+            Map<String, String> reasons;
+            if (conference == null) {
+                reasons = new HashMap<>(userIds.size());
+                for (String userId : userIds.keySet()) {
+                    reasons.put(userId, "No Conference found");
+                }
+            } else if (userIds.isEmpty()) {
+                reasons = new HashMap<>(0);
+            } else {
+                reasons = RegistrationService.registerAll(conference, userIds, false);
+            }
+
+            Map<String, String> statuses = new HashMap<>(reasons.size());
+            for (Map.Entry<String, String> entry : reasons.entrySet()) {
+                if (!RegistrationService.OUTCOME_UNKNOWN.equals(entry.getValue())) {
+                    statuses.put(statusKey(entry.getKey(), conferenceKey), entry.getValue());
+                }
+            }
+            MemcacheServiceFactory.getMemcacheService().putAll(statuses,
+                    Expiration.byDeltaSeconds(STATUS_EXPIRATION_SECONDS));
+            List<TaskHandle> done = new ArrayList<>(tasks.size());
+            for (int i = 0; i < tasks.size(); i++) {
+                String userId = taskUserIds.get(i);
+                if (userId == null
+                        || !RegistrationService.OUTCOME_UNKNOWN.equals(reasons.get(userId))) {
+                    done.add(tasks.get(i));
+                }
+            }
+            queue.deleteTask(done);
+            ingested += tasks.size();
+            if (tasks.size() < LEASE_SIZE) {
+                return ingested;
+            }
+        }
+        QueueFactory.getDefaultQueue().add(workerTask(conferenceKey));
+        return ingested;
+    }
+
+    private static String getUserId(final TaskHandle task) {
+        try {
+            for (Map.Entry<String, String> param : task.extractParams()) {
+                if ("userId".equals(param.getKey())) {
+                    return param.getValue();
+                }
+            }
+        } catch (UnsupportedEncodingException | UnsupportedOperationException e) {
+            LOG.log(Level.WARNING, "Dropping registration task " + task.getName(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the status of the registration of the given user for the given Conference: PENDING,
+     * RegistrationService.REGISTERED or the reason it failed, or null when it is not known.
+     *
+     * @param userId the userId of the user.
+     * @param conferenceKey the key of the Conference.
+     */
+    public static String getStatus(final String userId, final Key<Conference> conferenceKey) {
+        return (String) MemcacheServiceFactory.getMemcacheService()
+                .get(statusKey(userId, conferenceKey));
+    }
+
+    private static String statusKey(final String userId, final Key<Conference> conferenceKey) {
+        return Constants.MEMCACHE_REGISTRATION_STATUS_PREFIX + userId + "_"
+                + conferenceKey.getString();
+    }
+}
@@ -0,0 +1,311 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Migrates the registrations of a user to Registration entities, and registers many users for
+ * a conference at once.
+ */
+public class RegistrationService {
+
+    public static final String REGISTERED = "Registration successful";
+
+    public static final String ALREADY_REGISTERED = "Already registered";
+
+    public static final String NO_SEATS_AVAILABLE = "No seats available";
+
+    public static final String UNKNOWN_EXCEPTION = "Unknown exception";
+
+    /**
+     * The reason of the users whose batch failed in a way which may have committed it, such as
+     * a datastore timeout. Their seats were booked if and only if they were registered.
+     */
+    public static final String OUTCOME_UNKNOWN = "Registration outcome unknown";
+
+    /**
+     * Number of users registered in one transaction by registerAll(). Each user is an entity
+     * group of its own, next to the SeatShard, which keeps a transaction under the cross group
+     * limit of 25.
+     */
+    static final int BATCH_SIZE = 20;
+
+    /**
+     * Retries of the transactions booking or giving back seats on a SeatShard, which
+     * concurrent registrations contend on.
+     */
+    private static final RetryPolicy SEAT_SHARD_RETRY_POLICY =
+            new RetryPolicy("SeatShard", 5, 20, 400);
+
+    /**
+     * Retries of the transactions on the user's own entity group, which only the user's own
+     * concurrent requests contend on.
+     */
+    private static final RetryPolicy REGISTRATION_RETRY_POLICY =
+            new RetryPolicy("Registration", 3, 20, 100);
+
+    private static final Logger LOG = Logger.getLogger(RegistrationService.class.getName());
+
+    /**
+     * Moves the websafe conference keys still held in Profile.conferenceKeysToAttend to
+     * Registration entities, so that the rest of the application only has to look at those.
+     *
+     * @param userId the userId of the Profile to migrate.
+     */
+    public static void migrateLegacyRegistrations(final String userId) {
+        migrateLegacyRegistrations(ofy().load().key(Key.create(Profile.class, userId)).now());
+    }
+
+    /**
+     * Same as migrateLegacyRegistrations(String), for a Profile already loaded.
+     *
+     * @param profile the Profile to migrate, null when there is none.
+     */
+    public static void migrateLegacyRegistrations(Profile profile) {
+        if (profile == null || profile.getConferenceKeysToAttend().isEmpty()) {
+            return;
+        }
+        final String userId = profile.getUserId();
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        TransactionRunner.transact(REGISTRATION_RETRY_POLICY, new VoidWork() {
+            @Override
+            public void vrun() {
+                Profile profile = ofy().load().key(profileKey).now();
+                if (profile == null || profile.getConferenceKeysToAttend().isEmpty()) {
+                    return;
+                }
+                List<Registration> registrations =
+                        new ArrayList<>(profile.getConferenceKeysToAttend().size());
+                for (String websafeConferenceKey : profile.getConferenceKeysToAttend()) {
+                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                    registrations.add(new Registration(userId, conferenceKey));
+                }
+                profile.clearConferenceKeysToAttend();
+                ofy().save().entities(registrations);
+                ofy().save().entity(profile);
+            }
+        });
+    }
+
+    /**
+     * Registers the given users for the given Conference.
+     *
+     * The users are registered in batches of up to BATCH_SIZE users, each in one transaction
+     * which books their seats on one SeatShard and writes their Registrations, moving on to
+     * another shard when one runs out of seats. A batch is committed or rolled back together
+     * with its seats, so a batch failing in a way which may have committed it, such as a
+     * datastore timeout, leaks no seat: its users get OUTCOME_UNKNOWN, and registering them
+     * again finds them registered or books their seats then.
+     *
+     * @param conference the Conference, which must be sharded.
+     * @param emailsByUserId the userIds of the users in order, each with the email to create
+     *     its Profile with when it has none, or null to leave the Profile missing.
+     * @param allOrNone true to register nobody unless there are seats for everybody, false to
+     *     register the users in order while there are seats. When concurrent registrations take
+     *     the seats of an allOrNone group midway, the users registered by this call are
+     *     unregistered again.
+     * @return for each userId, REGISTERED, the reason it was not registered or OUTCOME_UNKNOWN.
+     */
+    public static Map<String, String> registerAll(final Conference conference,
+                                                  final Map<String, String> emailsByUserId,
+                                                  final boolean allOrNone) {
+        final Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        Map<String, String> reasons = new LinkedHashMap<>(emailsByUserId.size());
+
+        // Find the users registered already in one batch.
+        List<Key<Registration>> registrationKeys = new ArrayList<>(emailsByUserId.size());
+        for (String userId : emailsByUserId.keySet()) {
+            registrationKeys.add(Registration.createKey(userId, conference.getWebsafeKey()));
+        }
+        Map<Key<Registration>, Registration> registered = ofy().load().keys(registrationKeys);
+        List<Map.Entry<String, String>> toRegister = new ArrayList<>(emailsByUserId.size());
+        for (Map.Entry<String, String> entry : emailsByUserId.entrySet()) {
+            if (registered.containsKey(
+                    Registration.createKey(entry.getKey(), conference.getWebsafeKey()))) {
+                reasons.put(entry.getKey(), ALREADY_REGISTERED);
+            } else {
+                toRegister.add(entry);
+            }
+        }
+        if (allOrNone && SeatCounter.getSeatsAvailable(conference) < toRegister.size()) {
+            for (Map.Entry<String, String> entry : toRegister) {
+                reasons.put(entry.getKey(), NO_SEATS_AVAILABLE);
+            }
+            return reasons;
+        }
+
+        // The users registered on each shard, to unregister them from it when an allOrNone
+        // group runs out of seats.
+        Map<Key<SeatShard>, List<String>> registeredByShard = new LinkedHashMap<>(0);
+        List<Map.Entry<String, String>> remaining = toRegister;
+        Set<Key<SeatShard>> exhaustedShards = new HashSet<>(0);
+        while (!remaining.isEmpty()) {
+            Key<SeatShard> shardKey = SeatCounter.pickShardToBook(conference, exhaustedShards);
+            if (shardKey == null) {
+                break;
+            }
+            List<Map.Entry<String, String>> batch =
+                    remaining.subList(0, Math.min(BATCH_SIZE, remaining.size()));
+            ShardRegistration shardRegistration;
+            try {
+                shardRegistration = registerOnShard(conferenceKey, shardKey, batch);
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to register a batch of users", e);
+                // Only contention tells the commit did not happen.
+                String failure =
+                        TransactionRunner.classify(e) == TransactionRunner.Failure.CONTENTION
+                                ? UNKNOWN_EXCEPTION : OUTCOME_UNKNOWN;
+                for (Map.Entry<String, String> entry : batch) {
+                    reasons.put(entry.getKey(), failure);
+                }
+                remaining = remaining.subList(batch.size(), remaining.size());
+                continue;
+            }
+            for (Map.Entry<String, String> entry : batch.subList(0, shardRegistration.handled)) {
+                reasons.put(entry.getKey(), shardRegistration.registered.contains(entry.getKey())
+                        ? REGISTERED : ALREADY_REGISTERED);
+            }
+            if (!shardRegistration.registered.isEmpty()) {
+                if (!registeredByShard.containsKey(shardKey)) {
+                    registeredByShard.put(shardKey, new ArrayList<String>(0));
+                }
+                registeredByShard.get(shardKey).addAll(shardRegistration.registered);
+            }
+            if (shardRegistration.handled < batch.size()) {
+                exhaustedShards.add(shardKey);
+            }
+            remaining = remaining.subList(shardRegistration.handled, remaining.size());
+        }
+        for (Map.Entry<String, String> entry : remaining) {
+            reasons.put(entry.getKey(), NO_SEATS_AVAILABLE);
+        }
+
+        if (allOrNone && !remaining.isEmpty()) {
+            for (Map.Entry<Key<SeatShard>, List<String>> entry : registeredByShard.entrySet()) {
+                try {
+                    unregisterOnShard(conferenceKey, entry.getKey(), entry.getValue());
+                } catch (RuntimeException e) {
+                    // The users stay registered, as reported.
+                    LOG.log(Level.WARNING, "Failed to unregister a batch of users", e);
+                    continue;
+                }
+                for (String userId : entry.getValue()) {
+                    reasons.put(userId, NO_SEATS_AVAILABLE);
+                }
+            }
+        }
+        if (!registeredByShard.isEmpty()) {
+            SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+        }
+        return reasons;
+    }
+
+    /**
+     * The outcome of registerOnShard(): the users registered, and how many of the users were
+     * handled, registered or found registered already, before the shard ran out of seats.
+     */
+    private static class ShardRegistration {
+        private final List<String> registered = new ArrayList<>(0);
+        private int handled;
+    }
+
+    /**
+     * Registers the given users in order on the given SeatShard, creating the Profiles they
+     * don't have yet, in one transaction over the shard and their entity groups, until the
+     * shard runs out of seats.
+     */
+    private static ShardRegistration registerOnShard(final Key<Conference> conferenceKey,
+                                                     final Key<SeatShard> shardKey,
+                                                     final List<Map.Entry<String, String>> users) {
+        return TransactionRunner.transact(SEAT_SHARD_RETRY_POLICY, new Work<ShardRegistration>() {
+            @Override
+            public ShardRegistration run() {
+                List<Key<Registration>> registrationKeys = new ArrayList<>(users.size());
+                List<Key<Profile>> profileKeys = new ArrayList<>(users.size());
+                for (Map.Entry<String, String> user : users) {
+                    registrationKeys.add(
+                            Registration.createKey(user.getKey(), conferenceKey.getString()));
+                    profileKeys.add(Key.create(Profile.class, user.getKey()));
+                }
+                // Start all the reads before waiting for any.
+                LoadResult<SeatShard> shardResult = ofy().load().key(shardKey);
+                Map<Key<Registration>, Registration> registrations =
+                        ofy().load().keys(registrationKeys);
+                Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+
+                ShardRegistration shardRegistration = new ShardRegistration();
+                SeatShard shard = shardResult.now();
+                if (shard == null) {
+                    return shardRegistration;
+                }
+                List<Object> toSave = new ArrayList<>(users.size() * 2 + 1);
+                for (int i = 0; i < users.size(); i++) {
+                    String userId = users.get(i).getKey();
+                    String email = users.get(i).getValue();
+                    if (!registrations.containsKey(registrationKeys.get(i))) {
+                        if (shard.getSeatsAvailable() <= 0) {
+                            break;
+                        }
+                        shard.bookSeats(1);
+                        if (email != null && !profiles.containsKey(profileKeys.get(i))) {
+                            toSave.add(new Profile(userId, email.substring(0, email.indexOf('@')),
+                                    email, TeeShirtSize.NOT_SPECIFIED));
+                        }
+                        toSave.add(new Registration(userId, conferenceKey));
+                        shardRegistration.registered.add(userId);
+                    }
+                    shardRegistration.handled++;
+                }
+                toSave.add(shard);
+                ofy().save().entities(toSave);
+                return shardRegistration;
+            }
+        });
+    }
+
+    /**
+     * Unregisters the given users, giving their seats back to the given SeatShard they were
+     * booked on, in one transaction over the shard and their entity groups.
+     */
+    private static void unregisterOnShard(final Key<Conference> conferenceKey,
+                                          final Key<SeatShard> shardKey,
+                                          final List<String> userIds) {
+        TransactionRunner.transact(SEAT_SHARD_RETRY_POLICY, new VoidWork() {
+            @Override
+            public void vrun() {
+                List<Key<Registration>> registrationKeys = new ArrayList<>(userIds.size());
+                for (String userId : userIds) {
+                    registrationKeys.add(
+                            Registration.createKey(userId, conferenceKey.getString()));
+                }
+                // Start both reads before waiting for either.
+                LoadResult<SeatShard> shardResult = ofy().load().key(shardKey);
+                Map<Key<Registration>, Registration> registrations =
+                        ofy().load().keys(registrationKeys);
+
+                SeatShard shard = shardResult.now();
+                shard.giveBackSeats(registrations.size());
+                ofy().delete().keys(registrations.keySet());
+                ofy().save().entity(shard);
+            }
+        });
+    }
+}
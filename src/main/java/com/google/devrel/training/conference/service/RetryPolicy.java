@@ -0,0 +1,74 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Random;
+
+/**
+ * How TransactionRunner retries the transactions of one operation: how many attempts it gets,
+ * and how long to wait before each retry.
+ *
+ * The wait grows exponentially from initialBackoffMillis up to maxBackoffMillis, and the actual
+ * wait is drawn at random below it ("full jitter"), so that the transactions which collided on
+ * an entity group don't collide again on their retries.
+ */
+public class RetryPolicy {
+
+    /**
+     * The policy of the operations which don't need one of their own, close to the default of
+     * Objectify which tries a transaction four times in all.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy("default", 4, 20, 500);
+
+    private final String kind;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    /**
+     * @param kind the entity kind the operation contends on, which the counters of
+     *     TransactionRunner are kept by.
+     * @param maxAttempts the number of attempts, the first one included.
+     * @param initialBackoffMillis the largest wait before the first retry.
+     * @param maxBackoffMillis the largest wait before any retry.
+     */
+    public RetryPolicy(final String kind, final int maxAttempts, final long initialBackoffMillis,
+                       final long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid backoff: " + initialBackoffMillis
+                    + " to " + maxBackoffMillis + " ms");
+        }
+        this.kind = kind;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns how long to wait before the given retry.
+     *
+     * @param retry the number of the retry, 1 for the first one.
+     * @param random the source of the jitter.
+     * @return a wait between 0 and min(maxBackoffMillis, initialBackoffMillis * 2^(retry - 1)).
+     */
+    public long getBackoffMillis(final int retry, final Random random) {
+        long ceiling = initialBackoffMillis;
+        for (int i = 1; i < retry && ceiling < maxBackoffMillis; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxBackoffMillis);
+        return ceiling == 0 ? 0 : (long) (random.nextDouble() * (ceiling + 1));
+    }
+}
@@ -0,0 +1,256 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the datastore and memcache work done while handling one request.
+ *
+ * RpcAccountingFilter starts and ends the accounting of each request; AccountingDatastoreService
+ * records the datastore calls Objectify makes, and the memcache caches of the application
+ * record their hits. Outside a request, for instance in a background thread, nothing is
+ * recorded.
+ *
+ * Counters are plain fields of an object owned by the request thread, so recording costs a
+ * thread local lookup and an increment.
+ */
+public class RpcAccounting {
+
+    private static final Logger LOG = Logger.getLogger(RpcAccounting.class.getName());
+
+    /**
+     * Number of single entity loads of the same kind in one request which is reported as a
+     * likely N+1 pattern; those loads should be batched.
+     */
+    static final int ONE_BY_ONE_LOAD_THRESHOLD = 10;
+
+    private static final ThreadLocal<RpcAccounting> CURRENT = new ThreadLocal<>();
+
+    private final String endpoint;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private int loads;
+
+    private int loadedKeys;
+
+    private int saves;
+
+    private int savedEntities;
+
+    private int deletes;
+
+    private int queries;
+
+    private int transactions;
+
+    private int retries;
+
+    private int memcacheHits;
+
+    /**
+     * Keys requested from Objectify's memcache layer and keys it then read from the datastore,
+     * outside transactions; the difference are the entities served from memcache.
+     */
+    private int cacheableKeysRequested;
+
+    private int cacheableKeysLoaded;
+
+    private final Map<String, Integer> oneByOneLoads = new HashMap<>();
+
+    private RpcAccounting(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Starts the accounting of a request on the current thread.
+     *
+     * @param endpoint the name of the endpoint handling the request, used in the summary.
+     * @return the accounting of the request.
+     */
+    public static RpcAccounting begin(String endpoint) {
+        RpcAccounting accounting = new RpcAccounting(endpoint);
+        CURRENT.set(accounting);
+        return accounting;
+    }
+
+    /**
+     * Ends the accounting of the request on the current thread.
+     *
+     * @return the accounting of the request, or null when none was started.
+     */
+    public static RpcAccounting end() {
+        RpcAccounting accounting = CURRENT.get();
+        CURRENT.remove();
+        return accounting;
+    }
+
+    /**
+     * Returns the accounting of the request on the current thread, null when there is none.
+     */
+    public static RpcAccounting current() {
+        return CURRENT.get();
+    }
+
+    public static void recordMemcacheHit() {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.memcacheHits++;
+        }
+    }
+
+    static void recordLoad(String kind, int keys, boolean inTransaction) {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting == null) {
+            return;
+        }
+        accounting.loads++;
+        accounting.loadedKeys += keys;
+        if (!inTransaction) {
+            accounting.cacheableKeysLoaded += keys;
+        }
+    }
+
+    /**
+     * Records the keys requested from Objectify's memcache layer, before it serves some of them
+     * from memcache.
+     */
+    static void recordKeysRequested(String kind, int keys, boolean inTransaction) {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting == null) {
+            return;
+        }
+        if (!inTransaction) {
+            accounting.cacheableKeysRequested += keys;
+        }
+        if (keys == 1) {
+            accounting.recordOneByOneLoad(kind);
+        }
+    }
+
+    static void recordSave(int entities) {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.saves++;
+            accounting.savedEntities += entities;
+        }
+    }
+
+    static void recordDelete() {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.deletes++;
+        }
+    }
+
+    static void recordQuery() {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.queries++;
+        }
+    }
+
+    static void recordTransaction() {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.transactions++;
+        }
+    }
+
+    static void recordRetry() {
+        RpcAccounting accounting = CURRENT.get();
+        if (accounting != null) {
+            accounting.retries++;
+        }
+    }
+
+    private void recordOneByOneLoad(String kind) {
+        Integer count = oneByOneLoads.get(kind);
+        count = count == null ? 1 : count + 1;
+        oneByOneLoads.put(kind, count);
+        // Warn once per kind, with the stack of the load which crossed the threshold.
+        if (count == ONE_BY_ONE_LOAD_THRESHOLD) {
+            LOG.log(Level.WARNING, endpoint + " loaded " + count + " " + kind
+                    + " entities one by one; batch the loads", new Throwable("Stack sample"));
+        }
+    }
+
+    /**
+     * Returns the datastore get calls made, each for one or more keys.
+     */
+    public int getLoads() {
+        return loads;
+    }
+
+    public int getLoadedKeys() {
+        return loadedKeys;
+    }
+
+    /**
+     * Returns the datastore put calls made, each for one or more entities.
+     */
+    public int getSaves() {
+        return saves;
+    }
+
+    public int getSavedEntities() {
+        return savedEntities;
+    }
+
+    public int getDeletes() {
+        return deletes;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public int getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns the commits which failed with a ConcurrentModificationException, after which
+     * the transaction is retried, by TransactionRunner or by Objectify.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Returns the hits of the application memcache caches.
+     */
+    public int getMemcacheHits() {
+        return memcacheHits;
+    }
+
+    /**
+     * Returns the entities Objectify read from memcache instead of the datastore.
+     */
+    public int getEntityMemcacheHits() {
+        return Math.max(0, cacheableKeysRequested - cacheableKeysLoaded);
+    }
+
+    /**
+     * Returns the number of single entity loads of the given kind, served from memcache or not.
+     */
+    public int getOneByOneLoads(String kind) {
+        Integer count = oneByOneLoads.get(kind);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns the one line summary logged at the end of the request.
+     */
+    public String getSummary() {
+        return endpoint + ": " + loads + " loads (" + loadedKeys + " keys), "
+                + saves + " saves (" + savedEntities + " entities), "
+                + deletes + " deletes, " + queries + " queries, "
+                + transactions + " transactions, " + retries + " retries, "
+                + memcacheHits + " memcache hits, "
+                + getEntityMemcacheHits() + " entity memcache hits, "
+                + (System.currentTimeMillis() - startMillis) + " ms";
+    }
+}
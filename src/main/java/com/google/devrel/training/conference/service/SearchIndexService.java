@@ -0,0 +1,320 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.PostingList;
+import com.google.devrel.training.conference.domain.SearchDocument;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text search over the name, description and topics of the Conferences, with an inverted
+ * index of PostingList entities.
+ *
+ * A Conference is indexed by a task after it is written, see scheduleIndexing(). A search loads
+ * the postings of all its terms in one batch get, intersects them and ranks the Conferences
+ * containing every term.
+ */
+public class SearchIndexService {
+
+    /**
+     * Number of PostingList blocks of each term.
+     */
+    static final int BLOCKS_PER_TERM = 16;
+
+    /**
+     * Weight of a term for each occurrence in the name, the topics and the description.
+     */
+    static final int NAME_WEIGHT = 3;
+    static final int TOPIC_WEIGHT = 2;
+    static final int DESCRIPTION_WEIGHT = 1;
+
+    /**
+     * Largest number of terms of a search.
+     */
+    public static final int MAX_QUERY_TERMS = 10;
+
+    /**
+     * Largest number of PostingLists written in one transaction, the cross group limit.
+     */
+    private static final int BATCH_SIZE = 25;
+
+    private static final Set<String> STOP_WORDS = ImmutableSet.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it",
+            "of", "on", "or", "the", "to", "with");
+
+    /**
+     * Splits the given text into lower case terms, dropping one letter words and stop words.
+     *
+     * @param text the text, may be null.
+     * @return the terms in the order they appear, with repetitions.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>(0);
+        if (text == null) {
+            return terms;
+        }
+        for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (term.length() > 1 && !STOP_WORDS.contains(term)) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the weight of each term of the given Conference.
+     */
+    static Map<String, Integer> getTermWeights(Conference conference) {
+        Map<String, Integer> termWeights = new HashMap<>();
+        addTerms(termWeights, conference.getName(), NAME_WEIGHT);
+        addTerms(termWeights, conference.getDescription(), DESCRIPTION_WEIGHT);
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                addTerms(termWeights, topic, TOPIC_WEIGHT);
+            }
+        }
+        return termWeights;
+    }
+
+    private static void addTerms(Map<String, Integer> termWeights, String text, int weight) {
+        for (String term : tokenize(text)) {
+            Integer current = termWeights.get(term);
+            termWeights.put(term, current == null ? weight : current + weight);
+        }
+    }
+
+    private static int getBlock(String websafeConferenceKey) {
+        return (websafeConferenceKey.hashCode() & Integer.MAX_VALUE) % BLOCKS_PER_TERM;
+    }
+
+    /**
+     * Enqueues the task which indexes the given Conference. Call after writing its name,
+     * description or topics, inside the transaction when there is one so that the task only
+     * runs if the write is committed.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void scheduleIndexing(String websafeConferenceKey) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        TaskOptions task = TaskOptions.Builder.withUrl("/tasks/index_conference")
+                .param("websafeConferenceKey", websafeConferenceKey);
+        if (ofy().getTransaction() != null) {
+            queue.add(ofy().getTransaction(), task);
+        } else {
+            queue.add(task);
+        }
+    }
+
+    /**
+     * Brings the postings of the given Conference up to date with its current name, description
+     * and topics, or removes them when the Conference no longer exists.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void indexConference(String websafeConferenceKey) {
+        indexConferences(Collections.singletonList(websafeConferenceKey));
+    }
+
+    /**
+     * Brings the postings of the given Conferences up to date, updating each PostingList once
+     * for all of them.
+     *
+     * Postings are set to absolute values, so running this again, or out of order with another
+     * run for the same Conferences, ends in the same state.
+     *
+     * @param websafeConferenceKeys the websafe keys of the Conferences.
+     */
+    public static void indexConferences(Collection<String> websafeConferenceKeys) {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(websafeConferenceKeys.size());
+        List<Key<SearchDocument>> documentKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            conferenceKeys.add(Key.<Conference>create(websafeConferenceKey));
+            documentKeys.add(Key.create(SearchDocument.class, websafeConferenceKey));
+        }
+        Map<Key<Conference>, Conference> conferences = ofy().load().keys(conferenceKeys);
+        Map<Key<SearchDocument>, SearchDocument> documents = ofy().load().keys(documentKeys);
+
+        // The changed postings of each PostingList, a null weight removing the posting.
+        final Map<Key<PostingList>, Map<String, Integer>> changes = new HashMap<>();
+        final Map<Key<PostingList>, String> terms = new HashMap<>();
+        List<SearchDocument> toSave = new ArrayList<>(websafeConferenceKeys.size());
+        List<Key<SearchDocument>> toDelete = new ArrayList<>(0);
+        for (int i = 0; i < conferenceKeys.size(); i++) {
+            String websafeConferenceKey = conferenceKeys.get(i).getString();
+            Conference conference = conferences.get(conferenceKeys.get(i));
+            SearchDocument document = documents.get(documentKeys.get(i));
+
+            Map<String, Integer> termWeights = conference == null
+                    ? Collections.<String, Integer>emptyMap() : getTermWeights(conference);
+            Map<String, Integer> indexedTermWeights = document == null
+                    ? Collections.<String, Integer>emptyMap() : document.getTermWeights();
+            Set<String> changedTerms = new HashSet<>();
+            for (Map.Entry<String, Integer> entry : termWeights.entrySet()) {
+                if (!entry.getValue().equals(indexedTermWeights.get(entry.getKey()))) {
+                    changedTerms.add(entry.getKey());
+                }
+            }
+            for (String term : indexedTermWeights.keySet()) {
+                if (!termWeights.containsKey(term)) {
+                    changedTerms.add(term);
+                }
+            }
+
+            int block = getBlock(websafeConferenceKey);
+            for (String term : changedTerms) {
+                Key<PostingList> postingListKey = PostingList.createKey(term, block);
+                if (!changes.containsKey(postingListKey)) {
+                    changes.put(postingListKey, new HashMap<String, Integer>());
+                    terms.put(postingListKey, term);
+                }
+                changes.get(postingListKey).put(websafeConferenceKey, termWeights.get(term));
+            }
+
+            if (conference == null) {
+                toDelete.add(documentKeys.get(i));
+            } else {
+                toSave.add(new SearchDocument(websafeConferenceKey, termWeights));
+            }
+        }
+
+        List<Key<PostingList>> postingListKeys = new ArrayList<>(changes.keySet());
+        for (int i = 0; i < postingListKeys.size(); i += BATCH_SIZE) {
+            updatePostingLists(postingListKeys.subList(i,
+                    Math.min(i + BATCH_SIZE, postingListKeys.size())), terms, changes);
+        }
+
+        // Record the indexed terms last, so a failed run is redone in full when retried.
+        ofy().save().entities(toSave).now();
+        ofy().delete().keys(toDelete).now();
+    }
+
+    private static void updatePostingLists(final List<Key<PostingList>> postingListKeys,
+                                           final Map<Key<PostingList>, String> terms,
+                                           final Map<Key<PostingList>, Map<String, Integer>> changes) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                Map<Key<PostingList>, PostingList> loaded = ofy().load().keys(postingListKeys);
+                List<PostingList> toSave = new ArrayList<>(postingListKeys.size());
+                List<PostingList> toDelete = new ArrayList<>(0);
+                for (Key<PostingList> postingListKey : postingListKeys) {
+                    PostingList postingList = loaded.get(postingListKey);
+                    if (postingList == null) {
+                        postingList = new PostingList(terms.get(postingListKey),
+                                getBlock(changes.get(postingListKey).keySet().iterator().next()));
+                    }
+                    for (Map.Entry<String, Integer> change
+                            : changes.get(postingListKey).entrySet()) {
+                        if (change.getValue() == null) {
+                            postingList.removePosting(change.getKey());
+                        } else {
+                            postingList.putPosting(change.getKey(), change.getValue());
+                        }
+                    }
+                    if (postingList.isEmpty()) {
+                        toDelete.add(postingList);
+                    } else {
+                        toSave.add(postingList);
+                    }
+                }
+                ofy().save().entities(toSave);
+                ofy().delete().entities(toDelete);
+            }
+        });
+    }
+
+    /**
+     * Returns the Conferences containing every term of the given text, best matches first.
+     *
+     * A Conference scores the sum, over the terms, of the weight of the term in it divided by
+     * the log of the number of Conferences containing the term, so that rare terms count more.
+     *
+     * @param text the search text.
+     * @return the websafe keys of the matching Conferences, ranked.
+     * @throws IllegalArgumentException when the text has more than MAX_QUERY_TERMS terms.
+     */
+    public static List<String> search(String text) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(text));
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (terms.size() > MAX_QUERY_TERMS) {
+            throw new IllegalArgumentException("A search can have at most " + MAX_QUERY_TERMS
+                    + " terms");
+        }
+
+        List<Key<PostingList>> postingListKeys = new ArrayList<>(terms.size() * BLOCKS_PER_TERM);
+        for (String term : terms) {
+            for (int block = 0; block < BLOCKS_PER_TERM; block++) {
+                postingListKeys.add(PostingList.createKey(term, block));
+            }
+        }
+        Map<Key<PostingList>, PostingList> loaded = ofy().load().keys(postingListKeys);
+
+        List<Map<String, Integer>> termPostings = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            Map<String, Integer> postings = new HashMap<>();
+            for (int block = 0; block < BLOCKS_PER_TERM; block++) {
+                PostingList postingList = loaded.get(PostingList.createKey(term, block));
+                if (postingList != null) {
+                    postings.putAll(postingList.getPostings());
+                }
+            }
+            if (postings.isEmpty()) {
+                return Collections.emptyList();
+            }
+            termPostings.add(postings);
+        }
+
+        // Walk the shortest posting list and look the Conferences up in the others.
+        Collections.sort(termPostings, new Comparator<Map<String, Integer>>() {
+            @Override
+            public int compare(Map<String, Integer> postings1, Map<String, Integer> postings2) {
+                return Integer.compare(postings1.size(), postings2.size());
+            }
+        });
+        final Map<String, Double> scores = new HashMap<>();
+        candidates:
+        for (String websafeConferenceKey : termPostings.get(0).keySet()) {
+            double score = 0;
+            for (Map<String, Integer> postings : termPostings) {
+                Integer weight = postings.get(websafeConferenceKey);
+                if (weight == null) {
+                    continue candidates;
+                }
+                score += weight / Math.log(1 + postings.size());
+            }
+            scores.put(websafeConferenceKey, score);
+        }
+
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, new Comparator<String>() {
+            @Override
+            public int compare(String websafeConferenceKey1, String websafeConferenceKey2) {
+                int comparison = Double.compare(scores.get(websafeConferenceKey2),
+                        scores.get(websafeConferenceKey1));
+                return comparison != 0
+                        ? comparison : websafeConferenceKey1.compareTo(websafeConferenceKey2);
+            }
+        });
+        return ranked;
+    }
+}
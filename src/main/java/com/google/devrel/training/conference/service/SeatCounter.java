@@ -0,0 +1,251 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sharded seat counter for Conferences.
+ *
+ * The seats of a Conference are split into slices held by SeatShard entities, so that
+ * registrations for a popular conference book seats on different entity groups. The number of
+ * seats available is the sum over the shards, and is folded back into the indexed
+ * Conference.seatsAvailable property by a deferred task.
+ */
+public class SeatCounter {
+
+    /**
+     * The maximum number of shards per Conference.
+     */
+    public static final int MAX_SHARDS = 20;
+
+    /**
+     * The minimum number of seats in each shard.
+     */
+    public static final int MIN_SEATS_PER_SHARD = 25;
+
+    /**
+     * Delay before the aggregated count is written back to the Conference entity.
+     */
+    private static final int SEATS_UPDATE_DELAY_SECONDS = 5;
+
+    /**
+     * Retries of the transaction sharding a Conference, which contends with the other writes
+     * of the Conference entity.
+     */
+    private static final RetryPolicy CONFERENCE_RETRY_POLICY =
+            new RetryPolicy("Conference", 4, 20, 500);
+
+    /**
+     * Returns the number of shards to use for a conference with the given capacity.
+     *
+     * @param maxAttendees the capacity of the conference.
+     * @return the number of shards, between 1 and MAX_SHARDS.
+     */
+    public static int shardCountFor(final int maxAttendees) {
+        return Math.max(1, Math.min(MAX_SHARDS, maxAttendees / MIN_SEATS_PER_SHARD));
+    }
+
+    /**
+     * Splits the seats of the given Conference into new SeatShards and records the number of
+     * shards on the Conference. The caller is responsible for saving both.
+     *
+     * @param conference the Conference to shard.
+     * @return the shards just created.
+     */
+    public static List<SeatShard> createShards(final Conference conference) {
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        int shardCount = shardCountFor(conference.getMaxAttendees());
+        int capacity = conference.getMaxAttendees();
+        int seatsAvailable = conference.getSeatsAvailable();
+
+        List<SeatShard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            // Spread the remainders over the first shards.
+            int shardCapacity = capacity / shardCount + (i < capacity % shardCount ? 1 : 0);
+            int shardSeatsAvailable = seatsAvailable / shardCount
+                    + (i < seatsAvailable % shardCount ? 1 : 0);
+            shards.add(new SeatShard(conferenceKey, i, shardCapacity, shardSeatsAvailable));
+        }
+        conference.setSeatShardCount(shardCount);
+        return shards;
+    }
+
+    /**
+     * Returns the Conference with the given key, sharding its seats first if it has not been
+     * sharded yet.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the Conference, or null when there is no Conference with the given key.
+     */
+    public static Conference ensureShards(final Key<Conference> conferenceKey) {
+        return ensureShards(ofy().load().key(conferenceKey).now());
+    }
+
+    /**
+     * Returns the given Conference, sharding its seats first if it has not been sharded yet.
+     *
+     * @param conference the Conference, already loaded; null when there is none.
+     * @return the Conference, reloaded when it had to be sharded; null when it is null.
+     */
+    public static Conference ensureShards(final Conference conference) {
+        if (conference == null || conference.getSeatShardCount() > 0) {
+            return conference;
+        }
+        final Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        return TransactionRunner.transact(CONFERENCE_RETRY_POLICY, new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference != null && conference.getSeatShardCount() == 0) {
+                    List<SeatShard> shards = createShards(conference);
+                    ofy().save().entity(conference);
+                    ofy().save().entities(shards);
+                }
+                return conference;
+            }
+        });
+    }
+
+    /**
+     * Returns the keys of all the shards of the given Conference.
+     */
+    public static List<Key<SeatShard>> shardKeys(final Conference conference) {
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        List<Key<SeatShard>> keys = new ArrayList<>(conference.getSeatShardCount());
+        for (int i = 0; i < conference.getSeatShardCount(); i++) {
+            keys.add(SeatShard.createKey(conferenceKey, i));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the number of seats available on the given Conference summed over its shards.
+     *
+     * @param conference the Conference.
+     * @return the number of seats available.
+     */
+    public static int getSeatsAvailable(final Conference conference) {
+        if (conference.getSeatShardCount() == 0) {
+            return conference.getSeatsAvailable();
+        }
+        int seatsAvailable = 0;
+        for (SeatShard shard : ofy().load().keys(shardKeys(conference)).values()) {
+            seatsAvailable += shard.getSeatsAvailable();
+        }
+        return seatsAvailable;
+    }
+
+    /**
+     * Replaces the seatsAvailable of the given Conferences with the counts aggregated from their
+     * shards, loading the shards of all the Conferences in one batch.
+     *
+     * @param conferences the Conferences to refresh.
+     */
+    public static void refreshSeatsAvailable(final Collection<Conference> conferences) {
+        List<Key<SeatShard>> keys = new ArrayList<>(0);
+        for (Conference conference : conferences) {
+            keys.addAll(shardKeys(conference));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(keys);
+        for (Conference conference : conferences) {
+            if (conference.getSeatShardCount() == 0) {
+                continue;
+            }
+            int seatsAvailable = 0;
+            for (Key<SeatShard> key : shardKeys(conference)) {
+                SeatShard shard = shards.get(key);
+                if (shard != null) {
+                    seatsAvailable += shard.getSeatsAvailable();
+                }
+            }
+            conference.updateSeatsAvailable(seatsAvailable);
+        }
+    }
+
+    /**
+     * Picks a random shard of the given Conference that still has seats available.
+     *
+     * @param conference the Conference, which must be sharded.
+     * @param excluded the shards which turned out to be exhausted already.
+     * @return the key of the shard, or null when no shard has seats available.
+     */
+    public static Key<SeatShard> pickShardToBook(final Conference conference,
+                                                 final Collection<Key<SeatShard>> excluded) {
+        List<Key<SeatShard>> candidates = new ArrayList<>(0);
+        for (Map.Entry<Key<SeatShard>, SeatShard> entry
+                : ofy().load().keys(shardKeys(conference)).entrySet()) {
+            if (entry.getValue().getSeatsAvailable() > 0 && !excluded.contains(entry.getKey())) {
+                candidates.add(entry.getKey());
+            }
+        }
+        return pickRandom(candidates);
+    }
+
+    /**
+     * Picks a random shard of the given Conference that has seats allocated.
+     *
+     * @param conference the Conference, which must be sharded.
+     * @param excluded the shards which turned out to have no seats allocated already.
+     * @return the key of the shard, or null when no shard has seats allocated.
+     */
+    public static Key<SeatShard> pickShardToGiveBack(final Conference conference,
+                                                     final Collection<Key<SeatShard>> excluded) {
+        List<Key<SeatShard>> candidates = new ArrayList<>(0);
+        for (Map.Entry<Key<SeatShard>, SeatShard> entry
+                : ofy().load().keys(shardKeys(conference)).entrySet()) {
+            if (entry.getValue().getSeatsAllocated() > 0 && !excluded.contains(entry.getKey())) {
+                candidates.add(entry.getKey());
+            }
+        }
+        return pickRandom(candidates);
+    }
+
+    private static Key<SeatShard> pickRandom(final List<Key<SeatShard>> candidates) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+
+    /**
+     * Schedules a task writing the aggregated count back to the Conference entity, unless one
+     * is already pending. Keeps the indexed seatsAvailable property usable in queries without
+     * writing the Conference on each registration.
+     *
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void scheduleSeatsAvailableUpdate(final Key<Conference> conferenceKey) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String pendingKey = Constants.MEMCACHE_SEATS_UPDATE_PREFIX + conferenceKey.getString();
+        // The task runs after the marker expires, so changes made while the marker is present
+        // are still picked up by the pending task.
+        boolean added = memcacheService.put(pendingKey, Boolean.TRUE,
+                Expiration.byDeltaSeconds(SEATS_UPDATE_DELAY_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        if (added) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/update_seats_available")
+                            .param("websafeConferenceKey", conferenceKey.getString())
+                            .countdownMillis((SEATS_UPDATE_DELAY_SECONDS + 1) * 1000L));
+        }
+    }
+}
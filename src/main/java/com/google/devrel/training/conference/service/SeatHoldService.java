@@ -0,0 +1,131 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Returns the seats of expired SeatHolds to their SeatShards.
+ *
+ * A seat held by a user stays booked on its shard until the hold is confirmed or swept, so the
+ * seats available of a Conference are its capacity minus the confirmed registrations minus the
+ * holds which have not been swept yet. The sweeper runs from cron, see SweepSeatHoldsServlet.
+ */
+public class SeatHoldService {
+
+    /**
+     * How long a seat is held before it has to be confirmed.
+     */
+    public static final int HOLD_SECONDS = 10 * 60;
+
+    /**
+     * Number of holds swept in one transaction. Each hold is in the entity group of its user,
+     * next to the SeatShard, which keeps a transaction under the cross group limit of 25.
+     */
+    static final int SWEEP_BATCH_SIZE = 20;
+
+    /**
+     * Number of holds swept by one run of the sweeper; the next run picks up the rest.
+     */
+    static final int MAX_SWEPT_PER_RUN = 500;
+
+    /**
+     * Retries of the transactions giving seats back to a SeatShard, which concurrent
+     * registrations contend on.
+     */
+    private static final RetryPolicy SEAT_SHARD_RETRY_POLICY =
+            new RetryPolicy("SeatShard", 5, 20, 400);
+
+    /**
+     * Returns the expiration of a hold made or renewed at the given time.
+     */
+    public static Date expirationFrom(final Date now) {
+        return new Date(now.getTime() + HOLD_SECONDS * 1000L);
+    }
+
+    /**
+     * Deletes the holds which expired before the given time and gives their seats back,
+     * one transaction per batch of holds on the same SeatShard.
+     *
+     * @param now the current time.
+     * @return the number of holds swept.
+     */
+    public static int sweepExpired(final Date now) {
+        // The query is eventually consistent, so each hold is checked again in the transaction.
+        List<Key<SeatHold>> holdKeys = ofy().load().type(SeatHold.class)
+                .filter("expiration <", now)
+                .limit(MAX_SWEPT_PER_RUN)
+                .keys()
+                .list();
+        if (holdKeys.isEmpty()) {
+            return 0;
+        }
+
+        // Group the holds by shard, reading them outside of the transactions.
+        Map<Key<SeatShard>, List<Key<SeatHold>>> holdKeysByShard = new LinkedHashMap<>();
+        Set<Key<Conference>> conferenceKeys = new HashSet<>();
+        for (SeatHold hold : ofy().load().keys(holdKeys).values()) {
+            List<Key<SeatHold>> shardHoldKeys = holdKeysByShard.get(hold.getShardKey());
+            if (shardHoldKeys == null) {
+                shardHoldKeys = new ArrayList<>(1);
+                holdKeysByShard.put(hold.getShardKey(), shardHoldKeys);
+            }
+            shardHoldKeys.add(Key.create(hold));
+            conferenceKeys.add(hold.getConferenceKey());
+        }
+
+        int swept = 0;
+        for (Map.Entry<Key<SeatShard>, List<Key<SeatHold>>> entry : holdKeysByShard.entrySet()) {
+            List<Key<SeatHold>> shardHoldKeys = entry.getValue();
+            for (int i = 0; i < shardHoldKeys.size(); i += SWEEP_BATCH_SIZE) {
+                swept += sweepBatch(entry.getKey(), shardHoldKeys.subList(
+                        i, Math.min(i + SWEEP_BATCH_SIZE, shardHoldKeys.size())), now);
+            }
+        }
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+            WaitlistService.schedulePromotion(conferenceKey);
+        }
+        return swept;
+    }
+
+    private static int sweepBatch(final Key<SeatShard> shardKey,
+                                  final List<Key<SeatHold>> holdKeys, final Date now) {
+        return TransactionRunner.transact(SEAT_SHARD_RETRY_POLICY, new Work<Integer>() {
+            @Override
+            public Integer run() {
+                // Start both reads before waiting for either.
+                LoadResult<SeatShard> shardResult = ofy().load().key(shardKey);
+                Map<Key<SeatHold>, SeatHold> holds = ofy().load().keys(holdKeys);
+
+                List<SeatHold> expired = new ArrayList<>(holdKeys.size());
+                for (SeatHold hold : holds.values()) {
+                    // Renewed or confirmed holds are left alone.
+                    if (hold.isExpired(now)) {
+                        expired.add(hold);
+                    }
+                }
+                SeatShard shard = shardResult.now();
+                if (shard != null && !expired.isEmpty()) {
+                    shard.giveBackSeats(expired.size());
+                    ofy().save().entity(shard);
+                }
+                ofy().delete().entities(expired);
+                return expired.size();
+            }
+        });
+    }
+}
@@ -0,0 +1,12 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * Thrown by TransactionRunner when a transaction failed with a retryable error on each of the
+ * attempts of its RetryPolicy. The cause is the error of the last attempt.
+ */
+public class TransactionRetriesExhaustedException extends RuntimeException {
+
+    public TransactionRetriesExhaustedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
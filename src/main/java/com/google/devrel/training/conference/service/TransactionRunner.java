@@ -0,0 +1,172 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Work;
+
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs transactions on top of ofy() with the retries of a RetryPolicy instead of the retries
+ * of Objectify, and counts the attempts, retries and give-ups of each entity kind.
+ *
+ * Objectify retries a transaction at once on a ConcurrentModificationException, so transactions
+ * which collided on an entity group collide again. Here each attempt is a transaction of its
+ * own, and the errors are classified: contention and datastore timeouts are retried after a
+ * backoff, anything else is thrown at once. When the attempts of the policy run out, a
+ * TransactionRetriesExhaustedException is thrown.
+ *
+ * A transaction started inside another one joins it, as with ofy().transact(), and is retried
+ * with it.
+ */
+public class TransactionRunner {
+
+    private static final Logger LOG = Logger.getLogger(TransactionRunner.class.getName());
+
+    /**
+     * What an error of a transaction means for its retries.
+     */
+    public enum Failure {
+        /**
+         * Another transaction wrote the entity group first; the commit did not happen.
+         */
+        CONTENTION,
+        /**
+         * The datastore timed out. The work is retried, so it has to check in the transaction
+         * what an earlier attempt may have committed, as all the transactions here do.
+         */
+        TIMEOUT,
+        /**
+         * Anything else, which a retry would not fix.
+         */
+        PERMANENT
+    }
+
+    private static final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the work in a transaction, retrying it as the policy says.
+     *
+     * @param policy the retry policy of the operation.
+     * @param work the body of the transaction, which may run more than once.
+     * @return what the work returned.
+     * @throws TransactionRetriesExhaustedException when every attempt failed with contention or
+     *     a timeout.
+     */
+    public static <R> R transact(final RetryPolicy policy, final Work<R> work) {
+        if (ofy().getTransaction() != null) {
+            return work.run();
+        }
+        Counters kindCounters = getCounters(policy.getKind());
+        Random random = ThreadLocalRandom.current();
+        for (int attempt = 1; ; attempt++) {
+            kindCounters.attempts.incrementAndGet();
+            RuntimeException error;
+            try {
+                // Objectify retries while its count of tries is positive, so 0 makes one try.
+                return ofy().transactNew(0, work);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            Failure failure = classify(error);
+            if (failure == Failure.PERMANENT) {
+                throw error;
+            }
+            if (attempt >= policy.getMaxAttempts()) {
+                kindCounters.giveUps.incrementAndGet();
+                LOG.log(Level.WARNING, "Giving up a " + policy.getKind() + " transaction after "
+                        + attempt + " attempts", error);
+                throw new TransactionRetriesExhaustedException("Transaction on "
+                        + policy.getKind() + " failed " + attempt + " times with " + failure,
+                        error);
+            }
+            kindCounters.retries.incrementAndGet();
+            long backoffMillis = policy.getBackoffMillis(attempt, random);
+            LOG.fine("Retrying a " + policy.getKind() + " transaction after " + failure
+                    + " in " + backoffMillis + " ms");
+            if (backoffMillis > 0) {
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw error;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how an error of a transaction is retried, looking through its causes, since the
+     * commits made through a Future fail with a wrapped ConcurrentModificationException.
+     */
+    public static Failure classify(final Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrentModificationException) {
+                return Failure.CONTENTION;
+            }
+            if (cause instanceof DatastoreTimeoutException) {
+                return Failure.TIMEOUT;
+            }
+            // Reads of a heavily contended entity group fail this way rather than at commit.
+            if (cause instanceof DatastoreFailureException && cause.getMessage() != null
+                    && cause.getMessage().contains("too much contention")) {
+                return Failure.CONTENTION;
+            }
+        }
+        return Failure.PERMANENT;
+    }
+
+    private static Counters getCounters(final String kind) {
+        Counters kindCounters = counters.get(kind);
+        if (kindCounters == null) {
+            Counters created = new Counters();
+            kindCounters = counters.putIfAbsent(kind, created);
+            if (kindCounters == null) {
+                kindCounters = created;
+            }
+        }
+        return kindCounters;
+    }
+
+    /**
+     * Returns the counters of this instance by entity kind, sorted by kind.
+     */
+    public static Map<String, Counters> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * The attempts, retries and give-ups of the transactions on one entity kind.
+     */
+    public static class Counters {
+
+        private final AtomicLong attempts = new AtomicLong();
+
+        private final AtomicLong retries = new AtomicLong();
+
+        private final AtomicLong giveUps = new AtomicLong();
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        public long getGiveUps() {
+            return giveUps.get();
+        }
+    }
+}
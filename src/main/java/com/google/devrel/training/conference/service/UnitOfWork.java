@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gathers the entities a transaction creates or changes and saves them in one batch when it
+ * commits, instead of one datastore put per entity.
+ *
+ * Only the entities passed to save() are written, so the ones a transaction merely reads are
+ * left alone. An entity saved twice is written once, in its last state.
+ */
+public class UnitOfWork {
+
+    /**
+     * The body of a transaction run by transact(), which saves through the given UnitOfWork.
+     */
+    public interface Body<R> {
+        R run(UnitOfWork unitOfWork);
+    }
+
+    private final Map<Key<?>, Object> dirty = new LinkedHashMap<>();
+
+    /**
+     * Runs the body in a transaction and flushes its saves before the commit. Each retry of the
+     * transaction starts with an empty UnitOfWork.
+     *
+     * @param body the body of the transaction.
+     * @return what the body returned.
+     */
+    public static <R> R transact(final Body<R> body) {
+        return ofy().transact(new Work<R>() {
+            @Override
+            public R run() {
+                UnitOfWork unitOfWork = new UnitOfWork();
+                R result = body.run(unitOfWork);
+                unitOfWork.flush();
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Marks an entity to be saved. Its id has to be set.
+     */
+    public void save(Object entity) {
+        dirty.put(Key.create(entity), entity);
+    }
+
+    public void save(Iterable<?> entities) {
+        for (Object entity : entities) {
+            save(entity);
+        }
+    }
+
+    /**
+     * Saves the marked entities in one batch.
+     */
+    public void flush() {
+        if (!dirty.isEmpty()) {
+            ofy().save().entities(dirty.values()).now();
+            dirty.clear();
+        }
+    }
+}
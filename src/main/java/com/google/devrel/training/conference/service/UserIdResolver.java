@@ -0,0 +1,176 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the App Engine userId of users whose User has none, as for Android clients.
+ *
+ * The datastore fills in the userId of a User it stores, so the User is saved once in an
+ * AppEngineUser entity keyed by email and read back. The resolved userIds never change, so
+ * they are kept in memory and in memcache, and only the first request of a user on a cold
+ * cache costs a datastore read, plus a write the very first time.
+ */
+public class UserIdResolver {
+
+    private static final Logger LOG = Logger.getLogger(UserIdResolver.class.getName());
+
+    private static final int MAX_USERS = 10000;
+
+    private static final Cache<String, String> userIds =
+            CacheBuilder.newBuilder().maximumSize(MAX_USERS).build();
+
+    /**
+     * Returns the userId of the user.
+     *
+     * @param user A User object injected by the cloud endpoints.
+     * @return the App Engine userId for the user.
+     */
+    public static String getUserId(User user) {
+        String userId = user.getUserId();
+        if (userId != null) {
+            return userId;
+        }
+        String email = user.getEmail();
+        userId = userIds.getIfPresent(email);
+        if (userId != null) {
+            return userId;
+        }
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(Constants.MEMCACHE_USER_ID_PREFIX + email);
+        if (cached instanceof String) {
+            RpcAccounting.recordMemcacheHit();
+            userId = (String) cached;
+        } else {
+            userId = resolveUserId(user);
+            if (userId == null) {
+                return null;
+            }
+            memcacheService.put(Constants.MEMCACHE_USER_ID_PREFIX + email, userId);
+        }
+        userIds.put(email, userId);
+        return userId;
+    }
+
+    /**
+     * Returns the userIds of the users with the given emails, like getUserId() but with one
+     * memcache call and batch datastore reads and writes for all of them.
+     *
+     * @param emails the emails of the users.
+     * @param authDomain the auth domain of the users.
+     * @return the userIds by email, without the emails for which there is no userId.
+     */
+    public static Map<String, String> getUserIds(Collection<String> emails, String authDomain) {
+        Map<String, String> resolved = new HashMap<>(emails.size());
+        Set<String> missing = new LinkedHashSet<>(0);
+        for (String email : emails) {
+            String userId = userIds.getIfPresent(email);
+            if (userId != null) {
+                resolved.put(email, userId);
+            } else {
+                missing.add(email);
+            }
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        List<String> cacheKeys = new ArrayList<>(missing.size());
+        for (String email : missing) {
+            cacheKeys.add(Constants.MEMCACHE_USER_ID_PREFIX + email);
+        }
+        for (Map.Entry<String, Object> entry : memcacheService.getAll(cacheKeys).entrySet()) {
+            if (entry.getValue() instanceof String) {
+                RpcAccounting.recordMemcacheHit();
+                String email = entry.getKey().substring(Constants.MEMCACHE_USER_ID_PREFIX.length());
+                resolved.put(email, (String) entry.getValue());
+                userIds.put(email, (String) entry.getValue());
+                missing.remove(email);
+            }
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        Map<String, Object> toCache = new HashMap<>(missing.size());
+        for (Map.Entry<String, String> entry : resolveUserIds(missing, authDomain).entrySet()) {
+            resolved.put(entry.getKey(), entry.getValue());
+            userIds.put(entry.getKey(), entry.getValue());
+            toCache.put(Constants.MEMCACHE_USER_ID_PREFIX + entry.getKey(), entry.getValue());
+        }
+        memcacheService.putAll(toCache);
+        return resolved;
+    }
+
+    /**
+     * Reads the userId from the AppEngineUser of the user, saving it first when there is none.
+     * Fresh sessions outside of any current transaction are used, so that the read sees what
+     * the datastore stored and the write doesn't join the transaction.
+     */
+    private static String resolveUserId(User user) {
+        AppEngineUser appEngineUser = new AppEngineUser(user);
+        AppEngineUser savedUser = ofy().factory().begin().load()
+                .key(appEngineUser.getKey()).now();
+        if (savedUser == null || savedUser.getUser().getUserId() == null) {
+            LOG.info("userId is null, so trying to obtain it from the datastore.");
+            ofy().factory().begin().save().entity(appEngineUser).now();
+            savedUser = ofy().factory().begin().load().key(appEngineUser.getKey()).now();
+        }
+        String userId = savedUser.getUser().getUserId();
+        LOG.info("Obtained the userId: " + userId);
+        return userId;
+    }
+
+    /**
+     * Same as resolveUserId(), for the users with the given emails, in batches.
+     */
+    private static Map<String, String> resolveUserIds(Collection<String> emails,
+                                                      String authDomain) {
+        Map<Key<AppEngineUser>, AppEngineUser> appEngineUsers = new LinkedHashMap<>();
+        for (String email : emails) {
+            AppEngineUser appEngineUser = new AppEngineUser(new User(email, authDomain));
+            appEngineUsers.put(appEngineUser.getKey(), appEngineUser);
+        }
+        Map<Key<AppEngineUser>, AppEngineUser> savedUsers = new HashMap<>(
+                ofy().factory().begin().load().keys(appEngineUsers.keySet()));
+        List<AppEngineUser> toSave = new ArrayList<>(0);
+        for (Map.Entry<Key<AppEngineUser>, AppEngineUser> entry : appEngineUsers.entrySet()) {
+            AppEngineUser savedUser = savedUsers.get(entry.getKey());
+            if (savedUser == null || savedUser.getUser().getUserId() == null) {
+                toSave.add(entry.getValue());
+            }
+        }
+        if (!toSave.isEmpty()) {
+            ofy().factory().begin().save().entities(toSave).now();
+            savedUsers.putAll(ofy().factory().begin().load().entities(toSave));
+        }
+
+        Map<String, String> resolved = new HashMap<>(savedUsers.size());
+        for (AppEngineUser savedUser : savedUsers.values()) {
+            if (savedUser.getUser().getUserId() != null) {
+                resolved.put(savedUser.getUser().getEmail(), savedUser.getUser().getUserId());
+            }
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,247 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Promotes the users waiting for a seat of a Conference, in the order they joined the waitlist.
+ *
+ * Promotions run in a task scheduled when seats are given back, see schedulePromotion(). Each
+ * transaction books seats on one SeatShard for a batch of waiting users, replacing their
+ * WaitlistEntries with Registrations, so a single writer promotes many users without contending
+ * with itself.
+ */
+public class WaitlistService {
+
+    /**
+     * Number of users promoted in one transaction. Each user is an entity group of its own,
+     * next to the SeatShard, which keeps a transaction under the cross group limit of 25.
+     */
+    public static final int PROMOTION_BATCH_SIZE = 20;
+
+    /**
+     * Number of batches promoted by one task before it hands over to the next one.
+     */
+    static final int MAX_BATCHES_PER_TASK = 10;
+
+    /**
+     * Delay before the promotion task runs, so that seats given back together are handled by
+     * the same task.
+     */
+    private static final int PROMOTION_DELAY_SECONDS = 5;
+
+    /**
+     * Retries of the transactions booking seats on a SeatShard, which concurrent
+     * registrations contend on.
+     */
+    private static final RetryPolicy SEAT_SHARD_RETRY_POLICY =
+            new RetryPolicy("SeatShard", 5, 20, 400);
+
+    /**
+     * Schedules the task promoting the waitlist of the given Conference, unless one is already
+     * pending. Call after giving seats back.
+     *
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void schedulePromotion(final Key<Conference> conferenceKey) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String pendingKey = Constants.MEMCACHE_WAITLIST_PROMOTION_PREFIX + conferenceKey.getString();
+        // The task runs after the marker expires, so seats given back while the marker is
+        // present are still picked up by the pending task.
+        boolean added = memcacheService.put(pendingKey, Boolean.TRUE,
+                Expiration.byDeltaSeconds(PROMOTION_DELAY_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        if (added) {
+            QueueFactory.getDefaultQueue().add(promotionTask(conferenceKey)
+                    .countdownMillis((PROMOTION_DELAY_SECONDS + 1) * 1000L));
+        }
+    }
+
+    private static TaskOptions promotionTask(final Key<Conference> conferenceKey) {
+        return TaskOptions.Builder.withUrl("/tasks/promote_waitlist")
+                .param("websafeConferenceKey", conferenceKey.getString());
+    }
+
+    /**
+     * Promotes the users waiting for the given Conference while it has seats available, and
+     * notifies them. Enqueues another task when there are more than MAX_BATCHES_PER_TASK
+     * batches to promote.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the entries of the users promoted.
+     */
+    public static List<WaitlistEntry> promote(final Key<Conference> conferenceKey) {
+        Conference conference = SeatCounter.ensureShards(conferenceKey);
+        if (conference == null) {
+            return Collections.emptyList();
+        }
+
+        // The query is eventually consistent. Entries which are already gone are skipped in the
+        // transaction, and entries which are not visible yet are left for a later task.
+        Iterator<Key<WaitlistEntry>> iterator = ofy().load().type(WaitlistEntry.class)
+                .filter("conferenceKey", conferenceKey)
+                .order("joinDate")
+                .chunk(PROMOTION_BATCH_SIZE)
+                .keys()
+                .iterator();
+        List<WaitlistEntry> promoted = new ArrayList<>(0);
+        int batches = 0;
+        while (iterator.hasNext()) {
+            List<Key<WaitlistEntry>> entryKeys = new ArrayList<>(PROMOTION_BATCH_SIZE);
+            while (entryKeys.size() < PROMOTION_BATCH_SIZE && iterator.hasNext()) {
+                entryKeys.add(iterator.next());
+            }
+            if (!promoteBatch(conference, entryKeys, promoted)) {
+                // No seats left.
+                break;
+            }
+            if (++batches == MAX_BATCHES_PER_TASK && iterator.hasNext()) {
+                QueueFactory.getDefaultQueue().add(promotionTask(conferenceKey));
+                break;
+            }
+        }
+
+        if (!promoted.isEmpty()) {
+            SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+        }
+        return promoted;
+    }
+
+    /**
+     * Promotes the given waiting users in FIFO order, moving on to another SeatShard when one
+     * runs out of seats, and adds the entries of the users promoted to the given list.
+     *
+     * @return false when the Conference ran out of seats before all the users were handled.
+     */
+    private static boolean promoteBatch(final Conference conference,
+                                        final List<Key<WaitlistEntry>> entryKeys,
+                                        final List<WaitlistEntry> allPromoted) {
+        List<WaitlistEntry> promoted = new ArrayList<>(0);
+        List<Key<WaitlistEntry>> remaining = entryKeys;
+        Set<Key<SeatShard>> exhaustedShards = new HashSet<>(0);
+        while (!remaining.isEmpty()) {
+            Key<SeatShard> shardKey = SeatCounter.pickShardToBook(conference, exhaustedShards);
+            if (shardKey == null) {
+                break;
+            }
+            ShardPromotion shardPromotion = promoteOnShard(shardKey, remaining);
+            promoted.addAll(shardPromotion.promoted);
+            remaining = remaining.subList(shardPromotion.handled, remaining.size());
+            exhaustedShards.add(shardKey);
+        }
+        notifyPromoted(conference, promoted);
+        allPromoted.addAll(promoted);
+        return remaining.isEmpty();
+    }
+
+    /**
+     * The outcome of promoteOnShard(): the users promoted, and how many of the entries were
+     * handled, promoted or dropped, before the shard ran out of seats.
+     */
+    private static class ShardPromotion {
+        private final List<WaitlistEntry> promoted = new ArrayList<>(0);
+        private int handled;
+    }
+
+    /**
+     * Promotes the given waiting users in FIFO order on the given SeatShard, in one transaction,
+     * until it runs out of seats.
+     */
+    private static ShardPromotion promoteOnShard(final Key<SeatShard> shardKey,
+                                                 final List<Key<WaitlistEntry>> entryKeys) {
+        return TransactionRunner.transact(SEAT_SHARD_RETRY_POLICY, new Work<ShardPromotion>() {
+            @Override
+            public ShardPromotion run() {
+                List<Key<Registration>> registrationKeys = new ArrayList<>(entryKeys.size());
+                for (Key<WaitlistEntry> entryKey : entryKeys) {
+                    registrationKeys.add(Key.create(
+                            entryKey.getParent(), Registration.class, entryKey.getName()));
+                }
+                // Start all the reads before waiting for any.
+                LoadResult<SeatShard> shardResult = ofy().load().key(shardKey);
+                Map<Key<WaitlistEntry>, WaitlistEntry> entries = ofy().load().keys(entryKeys);
+                Map<Key<Registration>, Registration> registrations =
+                        ofy().load().keys(registrationKeys);
+
+                ShardPromotion shardPromotion = new ShardPromotion();
+                SeatShard shard = shardResult.now();
+                if (shard == null) {
+                    return shardPromotion;
+                }
+                List<Object> toSave = new ArrayList<>(0);
+                List<WaitlistEntry> toDelete = new ArrayList<>(0);
+                for (Key<WaitlistEntry> entryKey : entryKeys) {
+                    WaitlistEntry entry = entries.get(entryKey);
+                    if (entry != null) {
+                        Key<Registration> registrationKey = Key.create(
+                                entryKey.getParent(), Registration.class, entryKey.getName());
+                        // Users who registered on their own meanwhile just leave the waitlist.
+                        if (!registrations.containsKey(registrationKey)) {
+                            if (shard.getSeatsAvailable() <= 0) {
+                                break;
+                            }
+                            shard.bookSeats(1);
+                            toSave.add(new Registration(
+                                    entry.getUserId(), entry.getConferenceKey()));
+                            shardPromotion.promoted.add(entry);
+                        }
+                        toDelete.add(entry);
+                    }
+                    shardPromotion.handled++;
+                }
+                toSave.add(shard);
+                ofy().delete().entities(toDelete);
+                ofy().save().entities(toSave);
+                return shardPromotion;
+            }
+        });
+    }
+
+    /**
+     * Enqueues an email to each of the promoted users.
+     */
+    private static void notifyPromoted(final Conference conference,
+                                       final List<WaitlistEntry> promoted) {
+        if (promoted.isEmpty()) {
+            return;
+        }
+        List<Key<Profile>> profileKeys = new ArrayList<>(promoted.size());
+        for (WaitlistEntry entry : promoted) {
+            profileKeys.add(entry.getProfileKey());
+        }
+        List<TaskOptions> tasks = new ArrayList<>(promoted.size());
+        for (Profile profile : ofy().load().keys(profileKeys).values()) {
+            if (profile.getMainEmail() != null) {
+                tasks.add(TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
+                        .param("email", profile.getMainEmail())
+                        .param("conferenceInfo", conference.toString())
+                        .param("kind", "waitlist_promotion"));
+            }
+        }
+        if (!tasks.isEmpty()) {
+            QueueFactory.getDefaultQueue().add(tasks);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.common.cache.CacheStats;
+import com.google.devrel.training.conference.service.ConferenceQueryCache;
+import com.google.devrel.training.conference.service.NearCache;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Reports the hit and miss counters of the caches of this instance as plain text.
+ */
+public class CacheStatsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        writer.println("conferenceQuery.hits " + ConferenceQueryCache.getHits());
+        writer.println("conferenceQuery.misses " + ConferenceQueryCache.getMisses());
+        CacheStats nearCacheStats = NearCache.getStats();
+        writer.println("nearCache.hits " + nearCacheStats.hitCount());
+        writer.println("nearCache.misses " + nearCacheStats.missCount());
+        writer.println("nearCache.hitRate " + nearCacheStats.hitRate());
+        writer.println("nearCache.evictions " + nearCacheStats.evictionCount());
+        writer.println("nearCache.versionChanges " + NearCache.getVersionChanges());
+    }
+}
@@ -0,0 +1,23 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SearchIndexService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Updates the search index postings of a Conference after it has been written.
+ */
+public class IndexConferenceServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        SearchIndexService.indexConference(request.getParameter("websafeConferenceKey"));
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,27 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.RegistrationIngestion;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Ingests the registrations enqueued for a Conference, see RegistrationIngestion.
+ */
+public class IngestRegistrationsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        Key<Conference> conferenceKey = Key.create(request.getParameter("websafeConferenceKey"));
+        RegistrationIngestion.ingest(conferenceKey);
+
+        response.setStatus(204);
+    }
+}
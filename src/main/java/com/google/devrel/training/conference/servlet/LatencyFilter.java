@@ -0,0 +1,122 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.LatencyMetrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Records the latency of each request in LatencyMetrics.
+ *
+ * Exceptions thrown by servlets are recorded by their class. Endpoints turns the exceptions of
+ * API methods into error responses before they reach the filter, so those are recorded by the
+ * exception the status code stands for.
+ */
+public class LatencyFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long start = System.nanoTime();
+        String endpoint = RpcAccountingFilter.getEndpoint((HttpServletRequest) request);
+        StatusResponse statusResponse = new StatusResponse((HttpServletResponse) response);
+        String outcome = null;
+        try {
+            chain.doFilter(request, statusResponse);
+        } catch (IOException | ServletException | RuntimeException | Error e) {
+            outcome = getExceptionName(e);
+            throw e;
+        } finally {
+            if (outcome == null) {
+                outcome = getOutcome(statusResponse.status);
+            }
+            LatencyMetrics.record(endpoint, outcome, (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private static String getExceptionName(Throwable e) {
+        // Servlets wrap checked exceptions, the cause tells what actually failed.
+        Throwable cause = e;
+        while ((cause instanceof ServletException || cause.getClass() == RuntimeException.class)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the outcome of a response without an exception, naming the Endpoints exceptions
+     * which map to the error status codes.
+     */
+    private static String getOutcome(int status) {
+        if (status < 400) {
+            return LatencyMetrics.OK;
+        }
+        switch (status) {
+            case 400:
+                return "BadRequestException";
+            case 401:
+                return "UnauthorizedException";
+            case 403:
+                return "ForbiddenException";
+            case 404:
+                return "NotFoundException";
+            case 409:
+                return "ConflictException";
+            default:
+                return "Status" + status;
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Remembers the status code, which servlet 2.5 responses do not expose.
+     */
+    private static class StatusResponse extends HttpServletResponseWrapper {
+        private int status = SC_OK;
+
+        private StatusResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int status, String message) {
+            this.status = status;
+            super.setStatus(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            this.status = status;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            this.status = status;
+            super.sendError(status, message);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.LatencyHistogram;
+import com.google.devrel.training.conference.service.LatencyMetrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Reports the latency percentiles of each endpoint and outcome, in microseconds.
+ *
+ * Plain text by default, JSON with format=json. With scope=all the histograms of all the
+ * instances which flushed them to memcache recently are merged; otherwise only those of this
+ * instance are reported.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Map<String, Map<String, LatencyHistogram.Snapshot>> snapshot =
+                "all".equals(request.getParameter("scope"))
+                        ? LatencyMetrics.getAggregatedSnapshot() : LatencyMetrics.getSnapshot();
+        if ("json".equals(request.getParameter("format"))) {
+            response.setContentType("application/json");
+            writeJson(response.getWriter(), snapshot);
+        } else {
+            response.setContentType("text/plain");
+            writeText(response.getWriter(), snapshot);
+        }
+    }
+
+    private static void writeText(PrintWriter writer,
+                                  Map<String, Map<String, LatencyHistogram.Snapshot>> snapshot) {
+        for (Map.Entry<String, Map<String, LatencyHistogram.Snapshot>> endpoint
+                : snapshot.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram.Snapshot> outcome
+                    : endpoint.getValue().entrySet()) {
+                LatencyHistogram.Snapshot histogram = outcome.getValue();
+                writer.println(endpoint.getKey() + " " + outcome.getKey()
+                        + " count=" + histogram.getCount()
+                        + " p50=" + histogram.getPercentile(0.5)
+                        + " p95=" + histogram.getPercentile(0.95)
+                        + " p99=" + histogram.getPercentile(0.99)
+                        + " max=" + histogram.getMax());
+            }
+        }
+    }
+
+    private static void writeJson(PrintWriter writer,
+                                  Map<String, Map<String, LatencyHistogram.Snapshot>> snapshot) {
+        writer.print('{');
+        String endpointSeparator = "";
+        for (Map.Entry<String, Map<String, LatencyHistogram.Snapshot>> endpoint
+                : snapshot.entrySet()) {
+            writer.print(endpointSeparator + quote(endpoint.getKey()) + ":{");
+            endpointSeparator = ",";
+            String outcomeSeparator = "";
+            for (Map.Entry<String, LatencyHistogram.Snapshot> outcome
+                    : endpoint.getValue().entrySet()) {
+                LatencyHistogram.Snapshot histogram = outcome.getValue();
+                writer.print(outcomeSeparator + quote(outcome.getKey())
+                        + ":{\"count\":" + histogram.getCount()
+                        + ",\"p50\":" + histogram.getPercentile(0.5)
+                        + ",\"p95\":" + histogram.getPercentile(0.95)
+                        + ",\"p99\":" + histogram.getPercentile(0.99)
+                        + ",\"max\":" + histogram.getMax() + "}");
+                outcomeSeparator = ",";
+            }
+            writer.print('}');
+        }
+        writer.println('}');
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
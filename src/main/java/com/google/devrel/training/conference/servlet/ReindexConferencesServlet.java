@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ConferenceQueryCache;
+import com.google.devrel.training.conference.service.SearchIndexService;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Indexes all the Conferences for search and fills in their date buckets, a batch per task, for
+ * example for the ones created before the search index or the date buckets existed. Start it by
+ * posting to the url without a cursor.
+ */
+public class ReindexConferencesServlet extends HttpServlet {
+
+    /**
+     * Number of Conferences indexed by each task.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+
+        List<String> websafeConferenceKeys = new ArrayList<>(BATCH_SIZE);
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        while (iterator.hasNext()) {
+            websafeConferenceKeys.add(iterator.next().getString());
+        }
+        SearchIndexService.indexConferences(websafeConferenceKeys);
+        refreshDateBuckets(websafeConferenceKeys);
+
+        if (websafeConferenceKeys.size() == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/reindex_conferences")
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+
+    private void refreshDateBuckets(List<String> websafeConferenceKeys) {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            conferenceKeys.add(Key.<Conference>create(websafeConferenceKey));
+        }
+        boolean refreshed = false;
+        for (final Conference conference : ofy().load().keys(conferenceKeys).values()) {
+            if (!conference.refreshDateBuckets()) {
+                continue;
+            }
+            // Write in a transaction, so that a concurrent update of the Conference isn't lost.
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    Conference current = ofy().load().entity(conference).now();
+                    if (current != null && current.refreshDateBuckets()) {
+                        ofy().save().entity(current);
+                    }
+                }
+            });
+            refreshed = true;
+        }
+        if (refreshed) {
+            ConferenceQueryCache.invalidate();
+        }
+    }
+}
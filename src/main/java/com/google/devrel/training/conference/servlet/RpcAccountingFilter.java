@@ -0,0 +1,53 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RpcAccounting;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Accounts the datastore and memcache work of each request and logs a summary line for it,
+ * named after the endpoint method or servlet path.
+ */
+public class RpcAccountingFilter implements Filter {
+
+    private static final Logger LOG = Logger.getLogger(RpcAccountingFilter.class.getName());
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        RpcAccounting.begin(getEndpoint((HttpServletRequest) request));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            LOG.info(RpcAccounting.end().getSummary());
+        }
+    }
+
+    /**
+     * Returns the method name for Endpoints calls, whose paths end with the qualified name of
+     * the API method, and the path for the other requests.
+     */
+    static String getEndpoint(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        if (path.startsWith("/_ah/spi/")) {
+            return path.substring(path.lastIndexOf('.') + 1);
+        }
+        return path;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
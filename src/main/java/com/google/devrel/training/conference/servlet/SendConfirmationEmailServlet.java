@@ -19,6 +19,9 @@ import java.util.logging.Logger;
 
 /**
  * Created by Sangram on 2/16/2017.
+ *
+ * Sends the email confirming that a conference was created, or with kind=waitlist_promotion,
+ * that a user waiting for a seat got one.
  */
 public class SendConfirmationEmailServlet extends HttpServlet {
 
@@ -31,10 +34,14 @@ public class SendConfirmationEmailServlet extends HttpServlet {
 
         String email = request.getParameter("email");
         String conferenceInfo = request.getParameter("conferenceInfo");
+        boolean waitlistPromotion = "waitlist_promotion".equals(request.getParameter("kind"));
 
         Properties props = new Properties();
         Session session = Session.getDefaultInstance(props, null);
-        String body = "Hi, you have created a following conference.\n" + conferenceInfo;
+        String body = waitlistPromotion
+                ? "Hi, a seat freed up and you are now registered for the following conference.\n"
+                        + conferenceInfo
+                : "Hi, you have created a following conference.\n" + conferenceInfo;
 
         try {
             Message message = new MimeMessage(session);
@@ -45,7 +52,8 @@ public class SendConfirmationEmailServlet extends HttpServlet {
 
             message.setFrom(from);
             message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
-            message.setSubject("You created a new Conference");
+            message.setSubject(waitlistPromotion
+                    ? "You got a seat from the waitlist" : "You created a new Conference");
             message.setText(body);
             Transport.send(message);
         } catch (MessagingException e) {
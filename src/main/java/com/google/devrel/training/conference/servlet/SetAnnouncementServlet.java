@@ -1,10 +1,16 @@
 package com.google.devrel.training.conference.servlet;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.common.base.Joiner;
 import com.google.devrel.training.conference.Constants;
-import com.google.devrel.training.conference.domain.Conference;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,8 +20,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 /**
  * Created by Sangram on 2/16/2017.
  */
@@ -23,14 +27,19 @@ public class SetAnnouncementServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        Iterable<Conference> iterable = ofy().load().type(Conference.class)
-                .filter("seatsAvailable <", 5)
-                .filter("seatsAvailable >", 0);
+        // Only the names are needed, so project them out of the index instead of loading the
+        // entities. Objectify 5 has no projections, hence the low-level query.
+        Query query = new Query("Conference")
+                .setFilter(CompositeFilterOperator.and(
+                        new FilterPredicate("seatsAvailable", FilterOperator.LESS_THAN, 5),
+                        new FilterPredicate("seatsAvailable", FilterOperator.GREATER_THAN, 0)))
+                .addProjection(new PropertyProjection("name", String.class));
 
         //Get names of nearly sold out conferences
         List<String> conferenceNames = new ArrayList<>(0);
-        for (Conference conference: iterable) {
-            conferenceNames.add(conference.getName());
+        for (Entity conference : DatastoreServiceFactory.getDatastoreService().prepare(query)
+                .asIterable()) {
+            conferenceNames.add((String) conference.getProperty("name"));
         }
 
         if (conferenceNames.size() > 0) {
@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SeatHoldService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Gives the seats of the expired SeatHolds back. Runs from cron.
+ */
+public class SweepSeatHoldsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        SeatHoldService.sweepExpired(new Date());
+
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.TransactionRunner;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Reports the attempts, retries and give-ups of the transactions of this instance by entity
+ * kind as plain text.
+ */
+public class TransactionStatsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        for (Map.Entry<String, TransactionRunner.Counters> entry
+                : TransactionRunner.getCounters().entrySet()) {
+            String kind = entry.getKey();
+            TransactionRunner.Counters counters = entry.getValue();
+            writer.println("transactions." + kind + ".attempts " + counters.getAttempts());
+            writer.println("transactions." + kind + ".retries " + counters.getRetries());
+            writer.println("transactions." + kind + ".giveUps " + counters.getGiveUps());
+        }
+    }
+}
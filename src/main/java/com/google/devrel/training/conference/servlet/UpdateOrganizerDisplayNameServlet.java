@@ -0,0 +1,73 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Copies the display name of an organizer's Profile to all the Conferences the user organizes.
+ */
+public class UpdateOrganizerDisplayNameServlet extends HttpServlet {
+
+    /**
+     * Number of Conferences updated in each transaction.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        Key<Profile> profileKey = Key.create(Profile.class, request.getParameter("userId"));
+        Profile profile = ofy().load().key(profileKey).now();
+        if (profile == null) {
+            response.setStatus(204);
+            return;
+        }
+        // Always copy the current name, so tasks running out of order still end up consistent.
+        String displayName = profile.getDisplayName();
+
+        // Conferences are children of the organizer's Profile, so this query is consistent.
+        List<Key<Conference>> batch = new ArrayList<>(BATCH_SIZE);
+        for (Key<Conference> conferenceKey
+                : ofy().load().type(Conference.class).ancestor(profileKey).keys()) {
+            batch.add(conferenceKey);
+            if (batch.size() == BATCH_SIZE) {
+                updateBatch(batch, displayName);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            updateBatch(batch, displayName);
+        }
+
+        response.setStatus(204);
+    }
+
+    private void updateBatch(final List<Key<Conference>> conferenceKeys, final String displayName) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                List<Conference> changed = new ArrayList<>(conferenceKeys.size());
+                for (Conference conference : ofy().load().keys(conferenceKeys).values()) {
+                    if (!displayName.equals(conference.getOrganizerDisplayName())) {
+                        conference.updateOrganizerDisplayName(displayName);
+                        changed.add(conference);
+                    }
+                }
+                ofy().save().entities(changed);
+            }
+        });
+    }
+}
@@ -0,0 +1,59 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.RetryPolicy;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Writes the number of seats available aggregated from the SeatShards back to the Conference,
+ * so that queries on the indexed seatsAvailable property see the registrations.
+ */
+public class UpdateSeatsAvailableServlet extends HttpServlet {
+
+    /**
+     * Retries of the transaction on the Conference entity. A task which gives up fails, and
+     * the queue runs it again.
+     */
+    private static final RetryPolicy CONFERENCE_RETRY_POLICY =
+            new RetryPolicy("Conference", 4, 20, 500);
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        final Key<Conference> conferenceKey =
+                Key.create(request.getParameter("websafeConferenceKey"));
+
+        Conference sharded = ofy().load().key(conferenceKey).now();
+        if (sharded == null || sharded.getSeatShardCount() == 0) {
+            response.setStatus(204);
+            return;
+        }
+        // Sum the shards outside of the transaction, so that it only enlists the Conference.
+        final int seatsAvailable = SeatCounter.getSeatsAvailable(sharded);
+
+        TransactionRunner.transact(CONFERENCE_RETRY_POLICY, new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference != null && seatsAvailable != conference.getSeatsAvailable()) {
+                    conference.updateSeatsAvailable(seatsAvailable);
+                    ofy().save().entity(conference);
+                }
+            }
+        });
+
+        response.setStatus(204);
+    }
+}
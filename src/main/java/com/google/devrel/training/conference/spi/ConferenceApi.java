@@ -1,16 +1,21 @@
 package com.google.devrel.training.conference.spi;
 
-import static com.google.devrel.training.conference.service.OfyService.factory;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
 import com.google.api.server.spi.config.Named;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.QueryResultIterable;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.taskqueue.Queue;
@@ -22,17 +27,40 @@ import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.*;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.GroupRegistrationForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.service.ConferenceQueryCache;
+import com.google.devrel.training.conference.service.ConferenceQueryService;
+import com.google.devrel.training.conference.service.FacetCounter;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.RegistrationIngestion;
+import com.google.devrel.training.conference.service.RegistrationService;
+import com.google.devrel.training.conference.service.RetryPolicy;
+import com.google.devrel.training.conference.service.SearchIndexService;
+import com.google.devrel.training.conference.service.SeatHoldService;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.google.devrel.training.conference.service.TransactionRetriesExhaustedException;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.google.devrel.training.conference.service.UnitOfWork;
+import com.google.devrel.training.conference.service.UserIdResolver;
+import com.google.devrel.training.conference.service.WaitlistService;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.LoadResult;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -51,6 +79,45 @@ import java.util.logging.Logger;
         description = "API for the Conference Central Backend application.")
 public class ConferenceApi {
 
+    private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
+
+    /**
+     * Reason returned from a registration transaction when the picked SeatShard ran out.
+     */
+    private static final String SEAT_SHARD_EXHAUSTED = "Seat shard exhausted";
+
+    private static final String REGISTRATION_SUCCESSFUL = "Registration successful";
+
+    /**
+     * Reason returned from a registration transaction when its requestId was recorded for
+     * another conference.
+     */
+    private static final String REQUEST_ID_REUSED = "requestId reused";
+
+    /**
+     * Retries of the transactions booking or giving back a seat on a SeatShard, which
+     * concurrent registrations contend on.
+     */
+    private static final RetryPolicy SEAT_SHARD_RETRY_POLICY =
+            new RetryPolicy("SeatShard", 5, 20, 400);
+
+    /**
+     * Retries of the transactions on the user's own entity group, which only the user's own
+     * concurrent requests contend on.
+     */
+    private static final RetryPolicy REGISTRATION_RETRY_POLICY =
+            new RetryPolicy("Registration", 3, 20, 100);
+
+    /**
+     * Longest requestId accepted by registerForConference; it is used as a datastore key name.
+     */
+    private static final int MAX_REQUEST_ID_LENGTH = 100;
+
+    /**
+     * Largest number of attendees in a group registration.
+     */
+    private static final int MAX_GROUP_SIZE = 200;
+
     /*
      * Get the display name from the user's email. For example, if the email is
      * lemoncake@example.com, then the display name becomes "lemoncake."
@@ -66,19 +133,115 @@ public class ConferenceApi {
      * @return the App Engine userId for the user.
      */
     private static String getUserId(User user) {
-        String userId = user.getUserId();
-        Logger Log = Logger.getLogger(ConferenceApi.class.getName());
-        if (userId == null) {
-            Log.info("userId is null, so trying to obtain it from the datastore.");
-            AppEngineUser appEngineUser = new AppEngineUser(user);
-            ofy().save().entity(appEngineUser).now();
-            // Begin new session for not using session cache.
-            Objectify objectify = ofy().factory().begin();
-            AppEngineUser savedUser = objectify.load().key(appEngineUser.getKey()).now();
-            userId = savedUser.getUser().getUserId();
-            Log.info("Obtained the userId: " + userId);
+        return UserIdResolver.getUserId(user);
+    }
+
+    /**
+     * Decodes the String representation of a Conference Key.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the Conference Key.
+     * @throws ForbiddenException when the key cannot be decoded.
+     */
+    private static Key<Conference> createConferenceKey(String websafeConferenceKey)
+            throws ForbiddenException {
+        try {
+            return Key.create(websafeConferenceKey);
+        } catch (IllegalArgumentException e) {
+            throw new ForbiddenException("Unknown exception");
+        }
+    }
+
+    /**
+     * Resumes a query from the page token sent by the client.
+     *
+     * @param query The query to resume.
+     * @param pageToken The nextPageToken of the previous page, null for the first page.
+     * @return the query starting at the page.
+     * @throws BadRequestException when the page token is invalid.
+     */
+    private static <T> Query<T> startAt(Query<T> query, String pageToken)
+            throws BadRequestException {
+        try {
+            return ConferenceQueryService.startAt(query, pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid page token: " + pageToken);
+        }
+    }
+
+    /**
+     * Starts reading the results of a query resumed by startAt(). The datastore only parses the
+     * cursor of the page token when the first batch is fetched, so an invalid one is reported
+     * here.
+     *
+     * @param results The results of the query.
+     * @param pageToken The nextPageToken of the previous page, null for the first page.
+     * @return the iterator of the results.
+     * @throws BadRequestException when the page token is invalid.
+     */
+    private static <T> QueryResultIterator<T> iterate(QueryResultIterable<T> results,
+                                                      String pageToken)
+            throws BadRequestException {
+        try {
+            QueryResultIterator<T> iterator = results.iterator();
+            iterator.hasNext();
+            return iterator;
+        } catch (IllegalArgumentException e) {
+            if (pageToken == null) {
+                throw e;
+            }
+            throw new BadRequestException("Invalid page token: " + pageToken);
+        }
+    }
+
+    /**
+     * Loads the Profiles of the organizers whose display name is not stored on the Conference
+     * yet in one batch, so Conference.getOrganizerDisplayName() finds them in the session cache
+     * while the response is serialized.
+     *
+     * @param conferences The Conferences about to be returned.
+     */
+    private static void prefetchOrganizers(Collection<Conference> conferences) {
+        List<Key<Profile>> organizerKeys = new ArrayList<>(0);
+        for (Conference conference : conferences) {
+            if (!conference.hasOrganizerDisplayName()) {
+                organizerKeys.add(conference.getProfileKey());
+            }
+        }
+        if (!organizerKeys.isEmpty()) {
+            ofy().load().keys(organizerKeys);
         }
-        return userId;
+    }
+
+    /**
+     * Loads the Conferences with the given websafe keys in one batch.
+     *
+     * @param websafeConferenceKeys The String representations of the Conference Keys.
+     * @return the Conferences in the order of the given keys, skipping keys which cannot be
+     * decoded or have no Conference.
+     */
+    private static List<Conference> loadConferences(List<String> websafeConferenceKeys) {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            try {
+                conferenceKeys.add(Key.<Conference>create(websafeConferenceKey));
+            } catch (IllegalArgumentException e) {
+                LOG.warning("Skipping invalid conference key: " + websafeConferenceKey);
+            }
+        }
+
+        Map<Key<Conference>, Conference> loaded = ofy().load().keys(conferenceKeys);
+
+        List<Conference> conferences = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = loaded.get(conferenceKey);
+            if (conference != null) {
+                conferences.add(conference);
+            }
+        }
+        prefetchOrganizers(conferences);
+        SeatCounter.refreshSeatsAvailable(conferences);
+        return conferences;
     }
 
     /**
@@ -121,7 +284,10 @@ public class ConferenceApi {
         // Get the existing profile if it exists.
         Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
 
+        boolean displayNameChanged = false;
         if (profile != null) {
+            displayNameChanged = displayName != null
+                    && !displayName.equals(profile.getDisplayName());
             profile.update(displayName, teeShirtSize);
 //            if (displayName != null)
 //                profile.updateDisplayName(displayName);
@@ -145,6 +311,13 @@ public class ConferenceApi {
         // Save the Profile entity in the datastore
 
         ofy().save().entity(profile).now();
+
+        // Copy the new display name to the conferences organized by the user in the background.
+        if (displayNameChanged) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/update_organizer_display_name")
+                            .param("userId", userId));
+        }
         // Return the profile
         return profile;
     }
@@ -171,27 +344,6 @@ public class ConferenceApi {
 
     }
 
-    /**
-     * Gets the Profile entity for the current user
-     * or creates it if it doesn't exist
-     *
-     * @param user the logged in user
-     * @return user's Profile
-     */
-    private static Profile getProfileFromUser(User user) {
-        // First fetch the user's Profile from the datastore.
-        Profile profile = ofy().load().key(
-                Key.create(Profile.class, getUserId(user))).now();
-        if (profile == null) {
-            // Create a new Profile if it doesn't exist.
-            // Use default displayName and teeShirtSize
-            String email = user.getEmail();
-            profile = new Profile(getUserId(user),
-                    extractDefaultDisplayNameFromEmail(email), email, TeeShirtSize.NOT_SPECIFIED);
-        }
-        return profile;
-    }
-
     /**
      * Creates a new Conference object and stores it to the datastore.
      *
@@ -213,9 +365,9 @@ public class ConferenceApi {
         // Get the key for the User's Profile
         Key<Profile> profileKey = Key.create(Profile.class, userId);
 
-        // Allocate a key for the conference -- let App Engine allocate the ID
+        // Allocate a key for the conference from the IDs reserved under the Profile
         // Don't forget to include the parent Profile in the allocated ID
-        final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+        final Key<Conference> conferenceKey = IdAllocator.allocateId(profileKey, Conference.class);
 
         // Get the Conference Id from the Key
         final long conferenceId = conferenceKey.getId();
@@ -226,85 +378,239 @@ public class ConferenceApi {
         // Get the existing Profile entity for the current user if there is one
         // Otherwise create a new Profile entity with default values
 
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = UnitOfWork.transact(new UnitOfWork.Body<Conference>() {
             @Override
-            public Conference run() {
+            public Conference run(UnitOfWork unitOfWork) {
 
-                Profile profile = getProfileFromUser(user);
+                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
                 if (profile == null) {
+                    // Create a new Profile with default values if it doesn't exist.
                     String email = user.getEmail();
-                    profile = new Profile(getUserId(user),
+                    profile = new Profile(userId,
                             extractDefaultDisplayNameFromEmail(email), email, TeeShirtSize.NOT_SPECIFIED);
+                    unitOfWork.save(profile);
                 }
 
                 // TODO (Lesson 4)
                 // Create a new Conference Entity, specifying the user's Profile entity
                 // as the parent of the conference
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
+                conference.updateOrganizerDisplayName(profile.getDisplayName());
+
+                // Split the seats into shards up front, so the first registrations
+                // don't have to write the Conference entity.
+                List<SeatShard> seatShards = SeatCounter.createShards(conference);
 
                 // TODO (Lesson 4)
-                // Save Conference and Profile Entities
-//        ofy().save().entities(profile, conference).now();
-                ofy().save().entity(profile).now();
-                ofy().save().entity(conference).now();
+                // Save Conference and Profile Entities, in one batch at the commit
+                unitOfWork.save(conference);
+                unitOfWork.save(seatShards);
                 queue.add(ofy().getTransaction(),
                         TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
                                 .param("email", profile.getMainEmail())
                                 .param("conferenceInfo", conference.toString()));
+                SearchIndexService.scheduleIndexing(conference.getWebsafeKey());
+                FacetCounter.scheduleUpdate(conference.getWebsafeKey());
                 return conference;
             }
         });
 
+        // The new conference may match any cached query.
+        ConferenceQueryCache.invalidate();
         return conference;
     }
 
     /**
-     * Get all the conference objects from the datastore sorted b conference name.
+     * Get a page of the conference objects matching the filters, sorted by conference name.
      *
-     * @return list of all the created Conference Object sorted by conference name.
+     * @param conferenceQueryForm the filters and the page to return.
+     * @return a page of the matching Conference Objects with the token of the next page.
+     * @throws BadRequestException when the filters or the page token are invalid.
      */
     @ApiMethod(name = "queryConferences", path = "queryConferences", httpMethod = HttpMethod.POST)
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        //
-//        Query<Conference> query = ofy().load().type(Conference.class).order("name");
-//        return conferenceQueryForm.getQuery().list();
+    public CollectionResponse<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm)
+            throws BadRequestException {
+        CollectionResponse<Conference> result;
+        try {
+            result = ConferenceQueryService.query(conferenceQueryForm);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        // To avoid separate datastore gets for each conference, pre-fetch the Profiles
+        // of the organizers whose display name isn't stored on the Conference.
+        prefetchOrganizers(result.getItems());
+        SeatCounter.refreshSeatsAvailable(result.getItems());
+
+        return result;
+    }
 
-        Iterable<Conference> conferenceItearable = conferenceQueryForm.getQuery();
-        List result = new ArrayList<>(0);
-        List organizersKey = new ArrayList<>(0);
+    /**
+     * Get a page of the summaries of the conferences matching the filters, for listings.
+     *
+     * @param conferenceQueryForm the filters and the page to return.
+     * @return a page of the summaries of the matching conferences with the token of the next page.
+     * @throws BadRequestException when the filters or the page token are invalid.
+     */
+    @ApiMethod(
+            name = "queryConferenceSummaries",
+            path = "queryConferenceSummaries",
+            httpMethod = HttpMethod.POST
+    )
+    public CollectionResponse<ConferenceSummary> queryConferenceSummaries(
+            ConferenceQueryForm conferenceQueryForm) throws BadRequestException {
+        return toSummaries(queryConferences(conferenceQueryForm));
+    }
 
-        for (Conference conference : conferenceItearable) {
-            organizersKey.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-            result.add(conference);
+    /**
+     * Searches the name, description and topics of the conferences for all the words of the
+     * given text, best matches first.
+     *
+     * @param query the words to search for.
+     * @param pageToken the nextPageToken of the previous page, null for the first page.
+     * @param limit the maximum number of conferences to return.
+     * @return a page of the matching conferences with the token of the next page.
+     * @throws BadRequestException when the query has too many words or the page token is invalid.
+     */
+    @ApiMethod(
+            name = "searchConferences",
+            path = "searchConferences",
+            httpMethod = HttpMethod.GET
+    )
+    public CollectionResponse<Conference> searchConferences(@Named("query") final String query,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit) throws BadRequestException {
+        List<String> websafeConferenceKeys;
+        int offset;
+        try {
+            websafeConferenceKeys = SearchIndexService.search(query);
+            offset = pageToken == null ? 0 : Integer.parseInt(pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (offset < 0 || offset > websafeConferenceKeys.size()) {
+            throw new BadRequestException("Invalid page token: " + pageToken);
         }
-        // To avoid separate datastore gets for each conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKey);
 
-        return result;
+        // The ranking is recomputed for each page, so the token is the offset in it.
+        int end = Math.min(offset + ConferenceQueryService.getPageSize(limit),
+                websafeConferenceKeys.size());
+        return CollectionResponse.<Conference>builder()
+                .setItems(loadConferences(websafeConferenceKeys.subList(offset, end)))
+                .setNextPageToken(end < websafeConferenceKeys.size() ? String.valueOf(end) : null)
+                .build();
+    }
+
+    /**
+     * Returns the number of conferences in each city, with each topic and starting in each
+     * month, most frequent first. The counts can lag a little behind conference writes.
+     *
+     * @return the counts of each city, topic and month.
+     */
+    @ApiMethod(
+            name = "getConferenceFacets",
+            path = "conferenceFacets",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceFacets getConferenceFacets() {
+        return FacetCounter.getFacets();
     }
 
     /**
      * Get all the conferences created by the user.
      *
      * @param user the logged in user
-     * @return list of all the conferences created by the user.
+     * @param pageToken the nextPageToken of the previous page, null for the first page.
+     * @param limit the maximum number of conferences to return.
+     * @return a page of the conferences created by the user with the token of the next page.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the page token is invalid.
      */
     @ApiMethod(
             name = "getConferencesCreated",
             path = "getConferencesCreated",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> getConferencesCreated(final User user)
-            throws UnauthorizedException {
+    public CollectionResponse<Conference> getConferencesCreated(final User user,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, BadRequestException {
         if (user == null)
             throw new UnauthorizedException("Authorization required");
 
         String userId = getUserId(user);
         Key key = Key.create(Profile.class, userId);
-        Query<Conference> query = ofy().load().type(Conference.class).order("name").ancestor(key);
+        int pageSize = ConferenceQueryService.getPageSize(limit);
+        Query<Conference> query = ofy().load().type(Conference.class).order("name").ancestor(key)
+                .limit(pageSize);
+        query = startAt(query, pageToken);
+
+        List<Conference> conferences = new ArrayList<>(pageSize);
+        QueryResultIterator<Conference> iterator = iterate(query, pageToken);
+        while (iterator.hasNext()) {
+            conferences.add(iterator.next());
+        }
+        prefetchOrganizers(conferences);
+        SeatCounter.refreshSeatsAvailable(conferences);
+        return CollectionResponse.<Conference>builder()
+                .setItems(conferences)
+                .setNextPageToken(ConferenceQueryService.nextPageToken(
+                        iterator, conferences.size(), pageSize))
+                .build();
+    }
 
-        return query.list();
+    /**
+     * Get the summaries of the conferences created by the user, for listings.
+     *
+     * Runs a keys-only query and loads the Conferences by key, which Objectify serves from
+     * memcache for the ones read recently.
+     *
+     * @param user the logged in user
+     * @param pageToken the nextPageToken of the previous page, null for the first page.
+     * @param limit the maximum number of conferences to return.
+     * @return a page of the summaries of the conferences created by the user.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the page token is invalid.
+     */
+    @ApiMethod(
+            name = "getConferenceSummariesCreated",
+            path = "getConferenceSummariesCreated",
+            httpMethod = HttpMethod.POST
+    )
+    public CollectionResponse<ConferenceSummary> getConferenceSummariesCreated(final User user,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, BadRequestException {
+        if (user == null)
+            throw new UnauthorizedException("Authorization required");
+
+        Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
+        int pageSize = ConferenceQueryService.getPageSize(limit);
+        Query<Conference> query = ofy().load().type(Conference.class).order("name")
+                .ancestor(profileKey).limit(pageSize);
+        query = startAt(query, pageToken);
+
+        List<String> websafeConferenceKeys = new ArrayList<>(pageSize);
+        QueryResultIterator<Key<Conference>> iterator = iterate(query.keys(), pageToken);
+        while (iterator.hasNext()) {
+            websafeConferenceKeys.add(iterator.next().getString());
+        }
+        return toSummaries(CollectionResponse.<Conference>builder()
+                .setItems(loadConferences(websafeConferenceKeys))
+                .setNextPageToken(ConferenceQueryService.nextPageToken(
+                        iterator, websafeConferenceKeys.size(), pageSize))
+                .build());
+    }
+
+    private static CollectionResponse<ConferenceSummary> toSummaries(
+            CollectionResponse<Conference> conferences) {
+        List<ConferenceSummary> summaries = new ArrayList<>(conferences.getItems().size());
+        for (Conference conference : conferences.getItems()) {
+            summaries.add(new ConferenceSummary(conference));
+        }
+        return CollectionResponse.<ConferenceSummary>builder()
+                .setItems(summaries)
+                .setNextPageToken(conferences.getNextPageToken())
+                .build();
     }
 
     public List<Conference> filterPlayground() {
@@ -341,6 +647,7 @@ public class ConferenceApi {
         if (conference == null)
             throw new NotFoundException("No Conference found with the conference key: " + websafeConferenceKey);
 
+        SeatCounter.refreshSeatsAvailable(Collections.singletonList(conference));
         return conference;
     }
 
@@ -373,11 +680,26 @@ public class ConferenceApi {
     /**
      * Register to attend the specified Conference.
      *
+     * A client which retries calls sends the same requestId with every retry. The outcome of the
+     * first call with a requestId is recorded, and the later calls return it without running
+     * again, so a retry of a registration which went through succeeds instead of failing with
+     * "You have already registered".
+     *
+     * When registrations are ingested from a queue, see RegistrationIngestion, the registration
+     * is only enqueued and the result has the reason "Registration pending"; its outcome is then
+     * given by getRegistrationStatus. Outcomes of queued registrations are not recorded for the
+     * requestId, and a retry is ingested as "Already registered".
+     *
+     * A user who holds a seat from reserveSeat() is registered on that seat.
+     *
      * @param user                 An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param requestId            A client generated ID of the call, null when the client doesn't retry.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException     when there is no Conference with the given conferenceId.
+     * @throws BadRequestException   when the requestId is invalid or was sent for another conference.
+     * @throws ServiceUnavailableException when the booking transaction gave up on contention.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -386,86 +708,223 @@ public class ConferenceApi {
     )
 
     public WrappedBoolean registerForConference(final User user,
-                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            ConflictException, BadRequestException, ServiceUnavailableException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        if (requestId != null
+                && (requestId.isEmpty() || requestId.length() > MAX_REQUEST_ID_LENGTH)) {
+            throw new BadRequestException("Invalid requestId: " + requestId);
+        }
 
         // Get the userId
         final String userId = getUserId(user);
 
-        // TODO
-        // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
-            @Override
-            public WrappedBoolean run() {
-                try {
-
-                    // TODO
-                    // Get the conference key -- you can get it from websafeConferenceKey
-                    // Will throw ForbiddenException if the key cannot be created
-                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-
-                    // TODO
-                    // Get the Conference entity from the datastore
-                    Conference conference = ofy().load().key(conferenceKey).now();
-
-                    // 404 when there is no Conference with the given conferenceId.
-                    if (conference == null) {
-                        return new WrappedBoolean(false,
-                                "No Conference found with key: "
-                                        + websafeConferenceKey);
-                    }
+        // Start loading the Conference, the Profile and the outcome of an earlier call with the
+        // same requestId together, then wait for them.
+        final Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        LoadResult<RegistrationOutcome> outcomeResult = requestId == null ? null
+                : ofy().load().key(RegistrationOutcome.createKey(userId, requestId));
+        LoadResult<Conference> conferenceResult = ofy().load().key(conferenceKey);
+        LoadResult<Profile> profileResult = ofy().load().key(Key.create(Profile.class, userId));
+
+        // Replay the outcome of an earlier call, without a transaction.
+        RegistrationOutcome outcome = outcomeResult == null ? null : outcomeResult.now();
+        if (outcome != null) {
+            if (!websafeConferenceKey.equals(outcome.getWebsafeConferenceKey())) {
+                throw new BadRequestException(
+                        "requestId " + requestId + " was sent for another conference");
+            }
+            return checkRegistrationResult(
+                    new WrappedBoolean(outcome.getResult(), outcome.getReason()));
+        }
+
+        // Get the Conference entity, splitting its seats into shards on first use.
+        Conference conference = SeatCounter.ensureShards(conferenceResult.now());
 
-                    // TODO
-                    // Get the user's Profile entity
-                    Profile profile = getProfile(user);
+        // 404 when there is no Conference with the given conferenceId.
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+
+        RegistrationService.migrateLegacyRegistrations(profileResult.now());
+        final Key<Registration> registrationKey =
+                Registration.createKey(userId, websafeConferenceKey);
+        final Key<SeatHold> holdKey = SeatHold.createKey(userId, websafeConferenceKey);
+
+        // In the queued mode the seat is booked later, together with other registrations. A
+        // user who holds a seat already has one booked, so the hold is converted right away.
+        if (RegistrationIngestion.isEnabled() && ofy().load().key(holdKey).now() == null) {
+            if (ofy().load().key(registrationKey).now() != null) {
+                throw new ConflictException("You have already registered");
+            }
+            RegistrationIngestion.enqueue(userId, conferenceKey);
+            return new WrappedBoolean(true, RegistrationIngestion.PENDING);
+        }
+
+        // Book the seat on a random shard, so that concurrent registrations don't contend on
+        // one entity group. Another shard is tried when the picked one ran out of seats.
+        Set<Key<SeatShard>> exhaustedShards = new HashSet<>(0);
+        WrappedBoolean result;
+        do {
+            final Key<SeatShard> shardKey = SeatCounter.pickShardToBook(conference, exhaustedShards);
+            result = transact(SEAT_SHARD_RETRY_POLICY, new Work<WrappedBoolean>() {
+                @Override
+                public WrappedBoolean run() {
+                    // Start all the reads before waiting for any.
+                    LoadResult<Registration> registrationResult =
+                            ofy().load().key(registrationKey);
+                    LoadResult<SeatHold> holdResult = ofy().load().key(holdKey);
+                    LoadResult<SeatShard> shardResult =
+                            shardKey == null ? null : ofy().load().key(shardKey);
+                    LoadResult<RegistrationOutcome> outcomeResult = requestId == null ? null
+                            : ofy().load().key(RegistrationOutcome.createKey(userId, requestId));
+
+                    // A concurrent call with the same requestId, or an earlier attempt of this
+                    // transaction which committed before timing out, has already decided.
+                    RegistrationOutcome outcome =
+                            outcomeResult == null ? null : outcomeResult.now();
+                    if (outcome != null) {
+                        return websafeConferenceKey.equals(outcome.getWebsafeConferenceKey())
+                                ? new WrappedBoolean(outcome.getResult(), outcome.getReason())
+                                : new WrappedBoolean(false, REQUEST_ID_REUSED);
+                    }
 
                     // Has the user already registered to attend this conference?
-                    if (profile.getConferenceKeysToAttend().contains(
-                            websafeConferenceKey)) {
-                        return new WrappedBoolean(false, "Already registered");
-                    } else if (conference.getSeatsAvailable() <= 0) {
-                        return new WrappedBoolean(false, "No seats available");
+                    if (registrationResult.now() != null) {
+                        return refuse("Already registered");
+                    }
+
+                    // The seat held by reserveSeat() is booked already, even when the hold
+                    // has expired but has not been swept yet, so it is converted the way
+                    // confirmReservation() does instead of booking a second seat.
+                    SeatHold hold = holdResult.now();
+                    if (hold != null) {
+                        ofy().delete().entity(hold);
+                        return book(null);
+                    }
+
+                    SeatShard shard = shardResult == null ? null : shardResult.now();
+                    if (shard == null) {
+                        return refuse("No seats available");
+                    } else if (shard.getSeatsAvailable() <= 0) {
+                        return new WrappedBoolean(false, SEAT_SHARD_EXHAUSTED);
                     } else {
                         // All looks good, go ahead and book the seat
+                        shard.bookSeats(1);
+                        return book(shard);
+                    }
+                }
 
-                        // TODO
-                        // Add the websafeConferenceKey to the profile's
-                        // conferencesToAttend property
-                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
-
-                        // TODO
-                        // Decrease the conference's seatsAvailable
-                        // You can use the bookSeats() method on Conference
-                        conference.bookSeats(1);
+                /**
+                 * Saves the Registration, and the shard the seat was booked on unless it is
+                 * null.
+                 */
+                private WrappedBoolean book(SeatShard shard) {
+                    List<Object> entities = new ArrayList<>(3);
+                    entities.add(new Registration(userId, conferenceKey));
+                    if (shard != null) {
+                        entities.add(shard);
+                    }
+                    // The outcome is in the Registration's entity group, and is saved
+                    // if and only if the seat is booked.
+                    if (requestId != null) {
+                        entities.add(new RegistrationOutcome(userId, requestId,
+                                websafeConferenceKey, true, REGISTRATION_SUCCESSFUL));
+                    }
+                    ofy().save().entities(entities).now();
 
-                        // TODO
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(profile, conference).now();
+                    // We are booked!
+                    return new WrappedBoolean(true, REGISTRATION_SUCCESSFUL);
+                }
 
-                        // We are booked!
-                        return new WrappedBoolean(true, "Registration successful");
+                /**
+                 * Returns a refusal, recording it for the requestId in the same transaction,
+                 * so that retries get the same answer.
+                 */
+                private WrappedBoolean refuse(String reason) {
+                    if (requestId != null) {
+                        ofy().save().entity(new RegistrationOutcome(userId, requestId,
+                                websafeConferenceKey, false, reason));
                     }
-
-                } catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
+                    return new WrappedBoolean(false, reason);
                 }
-            }
 
-        });
+            });
+            exhaustedShards.add(shardKey);
+        } while (SEAT_SHARD_EXHAUSTED.equals(result.getReason()));
+
+        if (REQUEST_ID_REUSED.equals(result.getReason())) {
+            throw new BadRequestException(
+                    "requestId " + requestId + " was sent for another conference");
+        }
+        if (result.getResult()) {
+            SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+        }
+        return checkRegistrationResult(result);
+    }
+
+    /**
+     * Returns the status of the registration of the user for the specified Conference, which is
+     * "Registration pending" while a queued registration is not ingested yet.
+     *
+     * It only reads the cached Registration and memcache, so clients can poll it.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return true with "Registration successful" when registered, otherwise false with the
+     *     status of the registration, or "Not registered" when there is none.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException    when the key of the Conference is invalid.
+     */
+    @ApiMethod(
+            name = "getRegistrationStatus",
+            path = "conference/{websafeConferenceKey}/registration/status",
+            httpMethod = HttpMethod.GET
+    )
+    public WrappedBoolean getRegistrationStatus(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, ForbiddenException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        String userId = getUserId(user);
+        Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        if (ofy().load().key(Registration.createKey(userId, websafeConferenceKey)).now() != null) {
+            return new WrappedBoolean(true, REGISTRATION_SUCCESSFUL);
+        }
+        String status = RegistrationIngestion.getStatus(userId, conferenceKey);
+        return new WrappedBoolean(false, status == null ? "Not registered" : status);
+    }
 
+    /**
+     * Runs a transaction with TransactionRunner, reporting the transactions which gave up as
+     * 503, so that the client retries later.
+     */
+    private static <R> R transact(RetryPolicy policy, Work<R> work)
+            throws ServiceUnavailableException {
+        try {
+            return TransactionRunner.transact(policy, work);
+        } catch (TransactionRetriesExhaustedException e) {
+            throw new ServiceUnavailableException("The conference is busy, please try again");
+        }
+    }
 
+    /**
+     * Returns the result of a registration, or throws the exception a failed one is reported
+     * with.
+     */
+    private static WrappedBoolean checkRegistrationResult(WrappedBoolean result)
+            throws ConflictException, ForbiddenException {
         // if result is false
         if (!result.getResult()) {
-            if (result.getReason().contains("No Conference found with key")) {
-                throw new NotFoundException(result.getReason());
-            } else if (result.getReason() == "Already registered") {
+            if ("Already registered".equals(result.getReason())) {
                 throw new ConflictException("You have already registered");
-            } else if (result.getReason() == "No seats available") {
+            } else if ("No seats available".equals(result.getReason())) {
                 throw new ConflictException("There are no seats available");
             } else {
                 throw new ForbiddenException("Unknown exception");
@@ -475,19 +934,24 @@ public class ConferenceApi {
     }
 
     /**
-     * Returns a collection of Conference Object that the user is going to attend.
+     * Returns a page of the Conference Objects that the user is going to attend.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
-     * @return a Collection of Conferences that the user is going to attend.
+     * @param pageToken The nextPageToken of the previous page, null for the first page.
+     * @param limit The maximum number of conferences to return.
+     * @return a page of the Conferences that the user is going to attend.
      * @throws UnauthorizedException when the User object is null.
+     * @throws BadRequestException when the page token is invalid.
      */
     @ApiMethod(
             name = "getConferencesToAttend",
             path = "getConferencesToAttend",
             httpMethod = HttpMethod.GET
     )
-    public Collection<Conference> getConferencesToAttend(final User user)
-            throws UnauthorizedException, NotFoundException {
+    public CollectionResponse<Conference> getConferencesToAttend(final User user,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, NotFoundException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
@@ -499,19 +963,119 @@ public class ConferenceApi {
             throw new NotFoundException("Profile doesn't exist.");
         }
 
-        // TODO
-        // Get the value of the profile's conferenceKeysToAttend property
-        List<String> keyStringsToAttend = profile.getConferenceKeysToAttend(); // change this
+        // Get the websafe keys of the conferences from a page of the user's Registrations.
+        // This is an ancestor query, so it is strongly consistent.
+        RegistrationService.migrateLegacyRegistrations(profile.getUserId());
+        int pageSize = ConferenceQueryService.getPageSize(limit);
+        Query<Registration> query = ofy().load().type(Registration.class)
+                .ancestor(Key.create(Profile.class, profile.getUserId()))
+                .limit(pageSize);
+        query = startAt(query, pageToken);
+
+        List<String> keyStringsToAttend = new ArrayList<>(pageSize);
+        QueryResultIterator<Key<Registration>> iterator = iterate(query.keys(), pageToken);
+        while (iterator.hasNext()) {
+            keyStringsToAttend.add(iterator.next().getName());
+        }
 
-        // TODO
-        // Iterate over keyStringsToAttend,
-        // and return a Collection of the
-        // Conference entities that the user has registered to attend
-        List<Conference> conferences = new ArrayList<>(0);
-        for (String keyStringToAttend : keyStringsToAttend) {
-            conferences.add(getConference(keyStringToAttend));
+        // Load the Conference entities that the user has registered to attend in one batch
+        return CollectionResponse.<Conference>builder()
+                .setItems(loadConferences(keyStringsToAttend))
+                .setNextPageToken(ConferenceQueryService.nextPageToken(
+                        iterator, keyStringsToAttend.size(), pageSize))
+                .build();
+    }
+
+    /**
+     * Returns whether the user has registered to attend the specified Conference.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user has registered, otherwise false
+     * @throws UnauthorizedException when the user is not signed in.
+     */
+    @ApiMethod(
+            name = "isRegisteredForConference",
+            path = "conference/{websafeConferenceKey}/registration",
+            httpMethod = HttpMethod.GET
+    )
+    public WrappedBoolean isRegisteredForConference(final User user,
+                                                    @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
         }
-        return conferences;  // change this
+
+        String userId = getUserId(user);
+        RegistrationService.migrateLegacyRegistrations(userId);
+        Registration registration = ofy().load().key(
+                Registration.createKey(userId, websafeConferenceKey)).now();
+        return new WrappedBoolean(registration != null);
+    }
+
+    /**
+     * Returns a page of the Profiles of the users registered for the specified Conference.
+     * Only the organizer of the conference may list its attendees.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param pageToken            The nextPageToken of the previous page, null for the first page.
+     * @param limit                The maximum number of attendees to return.
+     * @return a page of attendee Profiles with the token of the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ForbiddenException    when the user is not the organizer of the conference.
+     * @throws BadRequestException   when the page token is invalid.
+     */
+    @ApiMethod(
+            name = "getConferenceAttendees",
+            path = "conference/{websafeConferenceKey}/attendees",
+            httpMethod = HttpMethod.GET
+    )
+    public CollectionResponse<Profile> getConferenceAttendees(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, BadRequestException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!conference.getOrganizerUserId().equals(getUserId(user))) {
+            throw new ForbiddenException("Only the organizer can list the attendees");
+        }
+
+        int pageSize = ConferenceQueryService.getPageSize(limit);
+        Query<Registration> query = ofy().load().type(Registration.class)
+                .filter("conferenceKey", conferenceKey)
+                .limit(pageSize);
+        query = startAt(query, pageToken);
+
+        // Collect the attendees' Profile keys, then load them in one batch.
+        List<Key<Profile>> profileKeys = new ArrayList<>(pageSize);
+        QueryResultIterator<Registration> iterator = iterate(query, pageToken);
+        while (iterator.hasNext()) {
+            profileKeys.add(iterator.next().getProfileKey());
+        }
+        String nextPageToken = ConferenceQueryService.nextPageToken(
+                iterator, profileKeys.size(), pageSize);
+
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+        List<Profile> attendees = new ArrayList<>(profileKeys.size());
+        for (Key<Profile> profileKey : profileKeys) {
+            if (profiles.containsKey(profileKey)) {
+                attendees.add(profiles.get(profileKey));
+            }
+        }
+        return CollectionResponse.<Profile>builder()
+                .setItems(attendees)
+                .setNextPageToken(nextPageToken)
+                .build();
     }
 
     /**
@@ -522,6 +1086,7 @@ public class ConferenceApi {
      * @throws NotFoundException     thrown if the conference does not exist
      * @throws ForbiddenException    Unknown exception
      * @throws ConflictException     thrown if the user is not registered but tries to unregister from it
+     * @throws ServiceUnavailableException thrown if the transaction gave up on contention
      */
     @ApiMethod(
             name = "unregisterFromConference",
@@ -530,67 +1095,407 @@ public class ConferenceApi {
     )
     public WrappedBoolean unregisterFromConference(final User user,
                                                    @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
 
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
 
-        // TODO
         // 1. get user from user id
 
         final String userId = getUserId(user);
 
-        // 2. start transaction to unregister
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
-            @Override
-            public WrappedBoolean run() {
-                try {
-                    // 3. find the conference using websafeConferenceKey
-                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                    Conference conference = ofy().load().key(conferenceKey).now();
-                    // 404 when there is no Conference with the given conferenceId.
-                    if (conference == null) {
-                        return new WrappedBoolean(false,
-                                "No Conference found with key: "
-                                        + websafeConferenceKey);
-                    }
-
-                    Profile profile = getProfile(user);
+        // 2. find the conference using websafeConferenceKey, loading the Profile alongside
+        final Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        LoadResult<Conference> conferenceResult = ofy().load().key(conferenceKey);
+        LoadResult<Profile> profileResult = ofy().load().key(Key.create(Profile.class, userId));
+        Conference conference = SeatCounter.ensureShards(conferenceResult.now());
+        // 404 when there is no Conference with the given conferenceId.
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
 
-                    if (!profile.getConferenceKeysToAttend().contains(
-                            websafeConferenceKey)) {
+        RegistrationService.migrateLegacyRegistrations(profileResult.now());
+        final Key<Registration> registrationKey =
+                Registration.createKey(userId, websafeConferenceKey);
+
+        // 3. start transaction to unregister, giving the seat back to a random shard
+        Set<Key<SeatShard>> exhaustedShards = new HashSet<>(0);
+        WrappedBoolean result;
+        do {
+            final Key<SeatShard> shardKey =
+                    SeatCounter.pickShardToGiveBack(conference, exhaustedShards);
+            result = transact(SEAT_SHARD_RETRY_POLICY, new Work<WrappedBoolean>() {
+                @Override
+                public WrappedBoolean run() {
+                    // Start both reads before waiting for either.
+                    LoadResult<Registration> registrationResult =
+                            ofy().load().key(registrationKey);
+                    LoadResult<SeatShard> shardResult =
+                            shardKey == null ? null : ofy().load().key(shardKey);
+
+                    Registration registration = registrationResult.now();
+                    if (registration == null) {
                         return new WrappedBoolean(false, "Not registered");
-                    } else if (conference.getSeatsAvailable() >= conference.getMaxAttendees()) {
+                    }
+
+                    SeatShard shard = shardResult == null ? null : shardResult.now();
+                    if (shard == null) {
                         return new WrappedBoolean(false, "Conference is already full");
+                    } else if (shard.getSeatsAllocated() <= 0) {
+                        return new WrappedBoolean(false, SEAT_SHARD_EXHAUSTED);
                     } else {
-                        profile.unregisterFromConference(websafeConferenceKey);
-                        conference.giveBackSeats(1);
-                        ofy().save().entities(profile, conference).now();
+                        shard.giveBackSeats(1);
+                        ofy().delete().entity(registration);
+                        ofy().save().entity(shard).now();
                         return new WrappedBoolean(true, "Unregistered from Conference");
                     }
-                } catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
                 }
-            }
-        });
+            });
+            exhaustedShards.add(shardKey);
+        } while (SEAT_SHARD_EXHAUSTED.equals(result.getReason()));
 
         // if result is false
         if (!result.getResult()) {
-            if (result.getReason().contains("No Conference found with key")) {
-                throw new NotFoundException(result.getReason());
-            } else if (result.getReason() == "Not registered") {
+            if ("Not registered".equals(result.getReason())) {
                 throw new ConflictException("You have not registered for the conference");
-            } else if (result.getReason() == "Conference is already full") {
+            } else if ("Conference is already full".equals(result.getReason())) {
                 throw new ConflictException("Conference is already full");
             } else {
                 throw new ForbiddenException("Unknown exception");
             }
         }
+        SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+        WaitlistService.schedulePromotion(conferenceKey);
 
         return result;
     }
 
+    /**
+     * Puts the user on the waitlist of the specified Conference. Users on the waitlist are
+     * registered in the order they joined it when seats are given back, and notified by email,
+     * so they don't have to keep retrying registerForConference.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user is on the waitlist
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ForbiddenException    when the key of the Conference is invalid.
+     * @throws ConflictException     when the user has already registered for the conference.
+     */
+    @ApiMethod(
+            name = "joinWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean joinWaitlist(final User user,
+                                       @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        String userId = getUserId(user);
+        Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        Key<WaitlistEntry> entryKey = WaitlistEntry.createKey(userId, websafeConferenceKey);
+        // Start all the reads before waiting for any.
+        LoadResult<Conference> conferenceResult = ofy().load().key(conferenceKey);
+        LoadResult<Registration> registrationResult =
+                ofy().load().key(Registration.createKey(userId, websafeConferenceKey));
+        LoadResult<WaitlistEntry> entryResult = ofy().load().key(entryKey);
+
+        Conference conference = conferenceResult.now();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (registrationResult.now() != null) {
+            throw new ConflictException("You have already registered");
+        }
+        if (entryResult.now() != null) {
+            return new WrappedBoolean(true, "Already on the waitlist");
+        }
+
+        // A single write to the user's own entity group; the promotion task does the booking.
+        ofy().save().entity(new WaitlistEntry(userId, conferenceKey)).now();
+        // The seatsAvailable of the Conference is only updated lazily, so sum the shards.
+        if (SeatCounter.getSeatsAvailable(conference) > 0) {
+            WaitlistService.schedulePromotion(conferenceKey);
+        }
+        return new WrappedBoolean(true, "Added to the waitlist");
+    }
+
+    /**
+     * Takes the user off the waitlist of the specified Conference.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user was taken off the waitlist
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ConflictException     when the user is not on the waitlist.
+     * @throws ServiceUnavailableException when the transaction gave up on contention.
+     */
+    @ApiMethod(
+            name = "leaveWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean leaveWaitlist(final User user,
+                                        @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, ConflictException, ServiceUnavailableException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        final Key<WaitlistEntry> entryKey =
+                WaitlistEntry.createKey(getUserId(user), websafeConferenceKey);
+        // In a transaction, so that the user is either promoted or taken off, never both.
+        boolean removed = transact(REGISTRATION_RETRY_POLICY, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                if (ofy().load().key(entryKey).now() == null) {
+                    return false;
+                }
+                ofy().delete().key(entryKey);
+                return true;
+            }
+        });
+        if (!removed) {
+            throw new ConflictException("You are not on the waitlist");
+        }
+        return new WrappedBoolean(true, "Left the waitlist");
+    }
+
+    /**
+     * Holds a seat of the specified Conference for the user for SeatHoldService.HOLD_SECONDS,
+     * for events where the registration has to be paid or approved first. The seat is booked
+     * right away in a short transaction; confirmReservation() turns the hold into a
+     * registration, and a hold which is not confirmed in time gives the seat back.
+     * Reserving again while holding a seat renews the hold.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatHold with its expiration.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ConflictException     when the user has already registered or there are no seats.
+     * @throws ServiceUnavailableException when the booking transaction gave up on contention.
+     */
+    @ApiMethod(
+            name = "reserveSeat",
+            path = "conference/{websafeConferenceKey}/reservation",
+            httpMethod = HttpMethod.POST
+    )
+    public SeatHold reserveSeat(final User user,
+                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        final String userId = getUserId(user);
+        final Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        Conference conference = SeatCounter.ensureShards(conferenceKey);
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        final Key<Registration> registrationKey =
+                Registration.createKey(userId, websafeConferenceKey);
+        final Key<SeatHold> holdKey = SeatHold.createKey(userId, websafeConferenceKey);
+
+        Set<Key<SeatShard>> exhaustedShards = new HashSet<>(0);
+        WrappedBoolean result;
+        do {
+            final Key<SeatShard> shardKey = SeatCounter.pickShardToBook(conference, exhaustedShards);
+            result = transact(SEAT_SHARD_RETRY_POLICY, new Work<WrappedBoolean>() {
+                @Override
+                public WrappedBoolean run() {
+                    // Start all the reads before waiting for any.
+                    LoadResult<Registration> registrationResult =
+                            ofy().load().key(registrationKey);
+                    LoadResult<SeatHold> holdResult = ofy().load().key(holdKey);
+                    LoadResult<SeatShard> shardResult =
+                            shardKey == null ? null : ofy().load().key(shardKey);
+
+                    if (registrationResult.now() != null) {
+                        return new WrappedBoolean(false, "Already registered");
+                    }
+                    Date expiration = SeatHoldService.expirationFrom(new Date());
+                    SeatHold hold = holdResult.now();
+                    if (hold != null) {
+                        // The seat is still booked, even when the hold has expired but has
+                        // not been swept yet.
+                        hold.renew(expiration);
+                        ofy().save().entity(hold).now();
+                        return new WrappedBoolean(true, "Reservation renewed");
+                    }
+
+                    SeatShard shard = shardResult == null ? null : shardResult.now();
+                    if (shard == null) {
+                        return new WrappedBoolean(false, "No seats available");
+                    } else if (shard.getSeatsAvailable() <= 0) {
+                        return new WrappedBoolean(false, SEAT_SHARD_EXHAUSTED);
+                    } else {
+                        shard.bookSeats(1);
+                        ofy().save().entities(new SeatHold(
+                                userId, conferenceKey, shardKey, expiration), shard).now();
+                        return new WrappedBoolean(true, "Seat reserved");
+                    }
+                }
+            });
+            exhaustedShards.add(shardKey);
+        } while (SEAT_SHARD_EXHAUSTED.equals(result.getReason()));
+
+        checkRegistrationResult(result);
+        if ("Seat reserved".equals(result.getReason())) {
+            SeatCounter.scheduleSeatsAvailableUpdate(conferenceKey);
+        }
+        return ofy().load().key(holdKey).now();
+    }
+
+    /**
+     * Registers the user for the specified Conference on the seat held by reserveSeat().
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when success
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ConflictException     when the user holds no seat, the hold has expired, or the
+     *                               user has already registered.
+     * @throws ServiceUnavailableException when the transaction gave up on contention.
+     */
+    @ApiMethod(
+            name = "confirmReservation",
+            path = "conference/{websafeConferenceKey}/reservation/confirm",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean confirmReservation(final User user,
+                                             @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        final String userId = getUserId(user);
+        final Key<Registration> registrationKey =
+                Registration.createKey(userId, websafeConferenceKey);
+        final Key<SeatHold> holdKey = SeatHold.createKey(userId, websafeConferenceKey);
+
+        // Only the user's own entity group is written: the seat is already booked on its shard.
+        WrappedBoolean result = transact(REGISTRATION_RETRY_POLICY, new Work<WrappedBoolean>() {
+            @Override
+            public WrappedBoolean run() {
+                // Start both reads before waiting for either.
+                LoadResult<Registration> registrationResult =
+                        ofy().load().key(registrationKey);
+                LoadResult<SeatHold> holdResult = ofy().load().key(holdKey);
+
+                SeatHold hold = holdResult.now();
+                if (hold == null) {
+                    return new WrappedBoolean(false, "No reservation");
+                } else if (hold.isExpired(new Date())) {
+                    // Left for the sweeper, which gives the seat back.
+                    return new WrappedBoolean(false, "Reservation expired");
+                } else if (registrationResult.now() != null) {
+                    return new WrappedBoolean(false, "Already registered");
+                }
+                ofy().delete().entity(hold);
+                ofy().save().entity(new Registration(userId, hold.getConferenceKey())).now();
+                return new WrappedBoolean(true, "Registration successful");
+            }
+        });
+
+        if (!result.getResult()) {
+            if ("No reservation".equals(result.getReason())) {
+                throw new ConflictException("You have not reserved a seat");
+            } else if ("Reservation expired".equals(result.getReason())) {
+                throw new ConflictException("Your reservation has expired");
+            }
+        }
+        return checkRegistrationResult(result);
+    }
+
+    /**
+     * Registers a group of attendees, given by email, for the specified Conference.
+     *
+     * Either all the attendees who can be registered get a seat or none does, see
+     * RegistrationService.registerAll().
+     *
+     * @param user                  An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey  The String representation of the Conference Key.
+     * @param groupRegistrationForm The emails of the attendees.
+     * @return whether each attendee was registered, and why not.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ForbiddenException    when the key of the Conference is invalid.
+     * @throws BadRequestException   when there are no attendees or more than MAX_GROUP_SIZE.
+     */
+    @ApiMethod(
+            name = "registerGroupForConference",
+            path = "conference/{websafeConferenceKey}/groupRegistration",
+            httpMethod = HttpMethod.POST
+    )
+    public GroupRegistrationResult registerGroupForConference(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            final GroupRegistrationForm groupRegistrationForm)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        List<String> attendeeEmails = groupRegistrationForm.getAttendeeEmails();
+        if (attendeeEmails == null || attendeeEmails.isEmpty()
+                || attendeeEmails.size() > MAX_GROUP_SIZE) {
+            throw new BadRequestException(
+                    "A group registration needs between 1 and " + MAX_GROUP_SIZE + " attendees");
+        }
+
+        final Key<Conference> conferenceKey = createConferenceKey(websafeConferenceKey);
+        Conference conference = SeatCounter.ensureShards(conferenceKey);
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+
+        // Resolve the attendees and find the ones registered already, in batches.
+        GroupRegistrationResult result = new GroupRegistrationResult();
+        Set<String> emails = new LinkedHashSet<>(attendeeEmails.size());
+        for (String email : attendeeEmails) {
+            if (email == null || email.trim().indexOf('@') <= 0) {
+                result.add(email, false, "Invalid email");
+            } else {
+                emails.add(email.trim());
+            }
+        }
+        Map<String, String> userIds = UserIdResolver.getUserIds(emails, user.getAuthDomain());
+
+        // Register the attendees by userId, keeping the email to create missing Profiles with.
+        Map<String, String> emailsByUserId = new LinkedHashMap<>(userIds.size());
+        for (String email : emails) {
+            String userId = userIds.get(email);
+            if (userId == null) {
+                result.add(email, false, "No account found for this email");
+            } else if (emailsByUserId.containsKey(userId)) {
+                result.add(email, false, RegistrationService.ALREADY_REGISTERED);
+            } else {
+                emailsByUserId.put(userId, email);
+            }
+        }
+        if (emailsByUserId.isEmpty()) {
+            return result;
+        }
+
+        Map<String, String> reasons =
+                RegistrationService.registerAll(conference, emailsByUserId, true);
+        for (Map.Entry<String, String> attendee : emailsByUserId.entrySet()) {
+            String reason = reasons.get(attendee.getKey());
+            result.add(attendee.getValue(), RegistrationService.REGISTERED.equals(reason), reason);
+        }
+        return result;
+    }
+
     @ApiMethod(
             name = "getAnnouncement",
             path = "announcement",
@@ -619,36 +1524,40 @@ public class ConferenceApi {
             throws NotFoundException {
 
         final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        final Key<Session> sessionKey = factory().allocateId(conferenceKey, Session.class);
+        final Key<Session> sessionKey = IdAllocator.allocateId(conferenceKey, Session.class);
         final long sessionId = sessionKey.getId();
 
-        Session session = ofy().transact(new Work<Session>() {
+        Session session = UnitOfWork.transact(new UnitOfWork.Body<Session>() {
             @Override
-            public Session run() {
+            public Session run(UnitOfWork unitOfWork) {
                 Conference conference = ofy().load().key(conferenceKey).now();
                 if (conference == null) {
                     return null;
                 }
                 List<String> speakers = sessionForm.getSpeakers();
 
+                // Look up all the speakers in one batch.
+                List<Key<Speaker>> speakerKeys = new ArrayList<>(speakers.size());
                 for (String speakersName : speakers) {
-                    Key<Speaker> speakerKey = Key.create(Speaker.class, speakersName);
-                    Speaker speaker = ofy().load().key(speakerKey).now();
+                    speakerKeys.add(Key.create(Speaker.class, speakersName));
+                }
+                Map<Key<Speaker>, Speaker> existingSpeakers = ofy().load().keys(speakerKeys);
+
+                for (int i = 0; i < speakers.size(); i++) {
+                    Speaker speaker = existingSpeakers.get(speakerKeys.get(i));
 
                     if (speaker == null) {
-                        speakerKey = factory().allocateId(Speaker.class);
-                        final long speakerId = speakerKey.getId();
-                        speaker = new Speaker(speakerId, speakersName, sessionKey);
-                        ofy().save().entity(speaker).now();
+                        final long speakerId = IdAllocator.allocateId(Speaker.class).getId();
+                        speaker = new Speaker(speakerId, speakers.get(i), sessionKey);
                     } else {
                         speaker.addSessionToSpeakersList(sessionKey);
-                        ofy().save().entity(speaker).now();
                     }
+                    unitOfWork.save(speaker);
                 }
 
+                // The Conference is unchanged, so only the Session and the speakers are saved.
                 Session session = new Session(sessionId, conferenceKey, sessionForm);
-                ofy().save().entity(conference).now();
-                ofy().save().entity(session).now();
+                unitOfWork.save(session);
                 return session;
             }
         });
@@ -264,7 +264,8 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         {enumValue: 'CITY', displayName: 'City'},
         {enumValue: 'TOPIC', displayName: 'Topic'},
         {enumValue: 'MONTH', displayName: 'Start month'},
-        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'}
+        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'},
+        {enumValue: 'DATES', displayName: 'Dates (yyyy-mm-dd/yyyy-mm-dd)'}
     ]
 
     /**
@@ -278,7 +279,9 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         {displayName: '>=', enumValue: 'GTEQ'},
         {displayName: '<', enumValue: 'LT'},
         {displayName: '<=', enumValue: 'LTEQ'},
-        {displayName: '!=', enumValue: 'NE'}
+        {displayName: '!=', enumValue: 'NE'},
+        {displayName: 'in (comma separated)', enumValue: 'IN'},
+        {displayName: 'overlaps', enumValue: 'OVERLAPS'}
     ];
 
     /**
@@ -405,24 +408,31 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     /**
      * Query the conferences depending on the tab currently selected.
      *
+     * @param pageToken the nextPageToken of the previous page to load more conferences,
+     *     undefined to start over.
      */
-    $scope.queryConferences = function () {
+    $scope.queryConferences = function (pageToken) {
         $scope.submitted = false;
+        if (!pageToken) {
+            $scope.conferences = [];
+            $scope.nextPageToken = undefined;
+        }
         if ($scope.selectedTab == 'ALL') {
-            $scope.queryConferencesAll();
+            $scope.queryConferencesAll(pageToken);
         } else if ($scope.selectedTab == 'YOU_HAVE_CREATED') {
-            $scope.getConferencesCreated();
+            $scope.getConferencesCreated(pageToken);
         } else if ($scope.selectedTab == 'YOU_WILL_ATTEND') {
-            $scope.getConferencesAttend();
+            $scope.getConferencesAttend(pageToken);
         }
     };
 
     /**
-     * Invokes the conference.queryConferences API.
+     * Invokes the conference.queryConferenceSummaries API.
      */
-    $scope.queryConferencesAll = function () {
+    $scope.queryConferencesAll = function (pageToken) {
         var sendFilters = {
-            filters: []
+            filters: [],
+            pageToken: pageToken
         }
         for (var i = 0; i < $scope.filters.length; i++) {
             var filter = $scope.filters[i];
@@ -435,7 +445,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
             }
         }
         $scope.loading = true;
-        gapi.client.conference.queryConferences(sendFilters).
+        gapi.client.conference.queryConferenceSummaries(sendFilters).
             execute(function (resp) {
                 $scope.$apply(function () {
                     $scope.loading = false;
@@ -452,10 +462,10 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
                         angular.forEach(resp.items, function (conference) {
                             $scope.conferences.push(conference);
                         });
+                        $scope.nextPageToken = resp.nextPageToken;
                     }
                     $scope.submitted = true;
                 });
@@ -463,11 +473,11 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     }
 
     /**
-     * Invokes the conference.getConferencesCreated method.
+     * Invokes the conference.getConferenceSummariesCreated method.
      */
-    $scope.getConferencesCreated = function () {
+    $scope.getConferencesCreated = function (pageToken) {
         $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
+        gapi.client.conference.getConferenceSummariesCreated({pageToken: pageToken}).
             execute(function (resp) {
                 $scope.$apply(function () {
                     $scope.loading = false;
@@ -489,10 +499,10 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
                         angular.forEach(resp.items, function (conference) {
                             $scope.conferences.push(conference);
                         });
+                        $scope.nextPageToken = resp.nextPageToken;
                     }
                     $scope.submitted = true;
                 });
@@ -503,9 +513,9 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      * Retrieves the conferences to attend by calling the conference.getProfile method and
      * invokes the conference.getConference method n times where n == the number of the conferences to attend.
      */
-    $scope.getConferencesAttend = function () {
+    $scope.getConferencesAttend = function (pageToken) {
         $scope.loading = true;
-        gapi.client.conference.getConferencesToAttend().
+        gapi.client.conference.getConferencesToAttend({pageToken: pageToken}).
             execute(function (resp) {
                 $scope.$apply(function () {
                     if (resp.error) {
@@ -521,7 +531,10 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         }
                     } else {
                         // The request has succeeded.
-                        $scope.conferences = resp.result.items;
+                        angular.forEach(resp.result.items, function (conference) {
+                            $scope.conferences.push(conference);
+                        });
+                        $scope.nextPageToken = resp.result.nextPageToken;
                         $scope.loading = false;
                         $scope.messages = 'Query succeeded : Conferences you will attend (or you have attended)';
                         $scope.alertStatus = 'success';
@@ -575,21 +588,18 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
 
         $scope.loading = true;
         // If the user is attending the conference, updates the status message and available function.
-        gapi.client.conference.getProfile().execute(function (resp) {
+        gapi.client.conference.isRegisteredForConference({
+            websafeConferenceKey: $routeParams.websafeConferenceKey
+        }).execute(function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
                 if (resp.error) {
-                    // Failed to get a user profile.
-                } else {
-                    var profile = resp.result;
-                    for (var i = 0; i < profile.conferenceKeysToAttend.length; i++) {
-                        if ($routeParams.websafeConferenceKey == profile.conferenceKeysToAttend[i]) {
-                            // The user is attending the conference.
-                            $scope.alertStatus = 'info';
-                            $scope.messages = 'You are attending this conference';
-                            $scope.isUserAttending = true;
-                        }
-                    }
+                    // Failed to get the registration.
+                } else if (resp.result.result) {
+                    // The user is attending the conference.
+                    $scope.alertStatus = 'info';
+                    $scope.messages = 'You are attending this conference';
+                    $scope.isUserAttending = true;
                 }
             });
         });
@@ -5,7 +5,10 @@ import static org.junit.Assert.*;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +18,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Tests for Conference POJO.
@@ -63,6 +67,8 @@ public class ConferenceTest {
 
     @After
     public void tearDown() throws Exception {
+        NearCache.invalidateAll();
+        IdAllocator.reset();
         helper.tearDown();
     }
 
@@ -101,6 +107,45 @@ public class ConferenceTest {
         assertEquals(displayName, conference.getOrganizerDisplayName());
     }
 
+    @Test
+    public void testStoredOrganizerDisplayName() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        assertFalse(conference.hasOrganizerDisplayName());
+        conference.updateOrganizerDisplayName("Udacity Student");
+        assertTrue(conference.hasOrganizerDisplayName());
+        // No Profile is saved, so the name must come from the Conference itself.
+        assertEquals("Udacity Student", conference.getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testDateBuckets() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Weeks are counted from Thursday January 1st, 1970.
+        assertEquals(ImmutableList.of(0), Conference.getDateBuckets(
+                dateFormat.parse("1970-01-01"), dateFormat.parse("1970-01-07")));
+        assertEquals(ImmutableList.of(0, 1), Conference.getDateBuckets(
+                dateFormat.parse("1970-01-07"), dateFormat.parse("1970-01-08")));
+
+        // A longer range is looked up by periods of 16 weeks.
+        assertEquals(ImmutableList.of(Conference.PERIOD_BUCKET_OFFSET,
+                Conference.PERIOD_BUCKET_OFFSET + 1), Conference.getDateBuckets(
+                dateFormat.parse("1970-01-01"), dateFormat.parse("1970-06-30")));
+
+        // A conference from a Wednesday to the next Monday runs in two weeks of one period.
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, new ConferenceForm(NAME,
+                DESCRIPTION, topics, CITY, dateFormat.parse("2014-03-26"),
+                dateFormat.parse("2014-03-31"), CAP));
+        assertEquals(ImmutableList.of(2307, 2308, Conference.PERIOD_BUCKET_OFFSET + 144),
+                conference.getDateBuckets());
+        assertFalse(conference.refreshDateBuckets());
+
+        // A conference without a start date has none.
+        conference = new Conference(ID, ORGANIZER_USER_ID, new ConferenceForm(NAME,
+                DESCRIPTION, topics, CITY, null, null, CAP));
+        assertTrue(conference.getDateBuckets().isEmpty());
+    }
+
     @Test
     public void testBookSeats() throws Exception {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
@@ -41,6 +43,8 @@ public class ProfileTest {
 
     @After
     public void tearDown() throws Exception {
+        NearCache.invalidateAll();
+        IdAllocator.reset();
         helper.tearDown();
     }
 
@@ -0,0 +1,60 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for IdAllocator.
+ */
+public class IdAllocatorTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testAllocateIdAcrossBlocks() throws Exception {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < IdAllocator.ROOT_BLOCK_SIZE * 3; i++) {
+            Key<Speaker> key = IdAllocator.allocateId(Speaker.class);
+            assertNull(key.getParent());
+            assertTrue("IDs should not be handed out twice", ids.add(key.getId()));
+        }
+    }
+
+    @Test
+    public void testAllocateIdUnderParents() throws Exception {
+        Key<Profile> profileKey1 = Key.create(Profile.class, "123456789");
+        Key<Profile> profileKey2 = Key.create(Profile.class, "987654321");
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < IdAllocator.CHILD_BLOCK_SIZE * 3; i++) {
+            Key<Conference> key = IdAllocator.allocateId(profileKey1, Conference.class);
+            assertEquals(profileKey1, key.getParent());
+            assertTrue("IDs should not be handed out twice", ids.add(key.getId()));
+        }
+        assertEquals(profileKey2,
+                IdAllocator.allocateId(profileKey2, Conference.class).getParent());
+    }
+}
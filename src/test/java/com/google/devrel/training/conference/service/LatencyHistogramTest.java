@@ -0,0 +1,59 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE,
+                LatencyHistogram.bucketUpperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        // Percentiles are rounded up to the end of their bucket, at most 12.5% more.
+        assertTrue(snapshot.getPercentile(0.5) >= 500);
+        assertTrue(snapshot.getPercentile(0.5) <= 500 * 1.125);
+        assertTrue(snapshot.getPercentile(0.99) >= 990);
+        assertEquals(1000, snapshot.getPercentile(1.0));
+        assertEquals(0, LatencyHistogram.Snapshot.empty().getPercentile(0.5));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(100000);
+        }
+        LatencyHistogram.Snapshot merged = fast.snapshot().merge(slow.snapshot());
+        assertEquals(100, merged.getCount());
+        assertEquals(100000, merged.getMax());
+        assertTrue(merged.getPercentile(0.5) <= 11);
+        assertTrue(merged.getPercentile(0.95) >= 100000 * 0.875);
+    }
+}
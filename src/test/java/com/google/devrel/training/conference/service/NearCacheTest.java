@@ -0,0 +1,73 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests for NearCache.
+ */
+public class NearCacheTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    private Entity conferenceA;
+
+    private Entity conferenceB;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceA = new Entity(KeyFactory.createKey("Conference", 1));
+        // A conference in another bucket than conference A.
+        long id = 2;
+        while (NearCache.bucket(KeyFactory.createKey("Conference", id))
+                == NearCache.bucket(conferenceA.getKey())) {
+            id++;
+        }
+        conferenceB = new Entity(KeyFactory.createKey("Conference", id));
+
+        // Read the versions of the buckets, then cache both conferences.
+        waitForVersionCheck();
+        assertNull(NearCache.get(conferenceA.getKey()));
+        NearCache.put(conferenceA, NearCache.getGeneration());
+        NearCache.put(conferenceB, NearCache.getGeneration());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NearCache.invalidateAll();
+        helper.tearDown();
+    }
+
+    private static void waitForVersionCheck() throws InterruptedException {
+        Thread.sleep(NearCache.VERSION_CHECK_INTERVAL_MILLIS + 1);
+    }
+
+    @Test
+    public void testLocalWriteKeepsOtherConferences() throws Exception {
+        NearCache.invalidate(Collections.singletonList(conferenceA.getKey()));
+        assertNull(NearCache.get(conferenceA.getKey()));
+        assertNotNull(NearCache.get(conferenceB.getKey()));
+    }
+
+    @Test
+    public void testRemoteWriteDropsItsBucketOnly() throws Exception {
+        // Conference A is written on another instance.
+        MemcacheServiceFactory.getMemcacheService().increment(
+                NearCache.versionKey(NearCache.bucket(conferenceA.getKey())), 1L);
+        waitForVersionCheck();
+        assertNull(NearCache.get(conferenceA.getKey()));
+        assertNotNull(NearCache.get(conferenceB.getKey()));
+    }
+}
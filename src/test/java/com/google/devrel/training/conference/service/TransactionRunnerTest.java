@@ -0,0 +1,154 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests for TransactionRunner and RetryPolicy.
+ */
+public class TransactionRunnerTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    /**
+     * A transaction body which fails with the given error on its first attempts.
+     */
+    private static class FailingWork implements Work<Integer> {
+
+        private final RuntimeException error;
+
+        private final int failures;
+
+        private int attempts;
+
+        private FailingWork(RuntimeException error, int failures) {
+            this.error = error;
+            this.failures = failures;
+        }
+
+        @Override
+        public Integer run() {
+            if (++attempts <= failures) {
+                throw error;
+            }
+            return attempts;
+        }
+    }
+
+    @Test
+    public void testRetriesContention() throws Exception {
+        RetryPolicy policy = new RetryPolicy("TestRetried", 3, 0, 0);
+        FailingWork work = new FailingWork(new ConcurrentModificationException(), 2);
+        assertEquals(3, (int) TransactionRunner.transact(policy, work));
+
+        TransactionRunner.Counters counters = TransactionRunner.getCounters().get("TestRetried");
+        assertEquals(3, counters.getAttempts());
+        assertEquals(2, counters.getRetries());
+        assertEquals(0, counters.getGiveUps());
+    }
+
+    @Test
+    public void testGivesUp() throws Exception {
+        RetryPolicy policy = new RetryPolicy("TestGaveUp", 2, 0, 0);
+        ConcurrentModificationException error = new ConcurrentModificationException();
+        try {
+            TransactionRunner.transact(policy, new FailingWork(error, 2));
+            fail("transact should throw TransactionRetriesExhaustedException.");
+        } catch (TransactionRetriesExhaustedException e) {
+            assertSame(error, e.getCause());
+        }
+
+        TransactionRunner.Counters counters = TransactionRunner.getCounters().get("TestGaveUp");
+        assertEquals(2, counters.getAttempts());
+        assertEquals(1, counters.getRetries());
+        assertEquals(1, counters.getGiveUps());
+    }
+
+    @Test
+    public void testDoesNotRetryPermanentErrors() throws Exception {
+        RetryPolicy policy = new RetryPolicy("TestPermanent", 3, 0, 0);
+        IllegalStateException error = new IllegalStateException();
+        try {
+            TransactionRunner.transact(policy, new FailingWork(error, 1));
+            fail("transact should throw IllegalStateException.");
+        } catch (IllegalStateException e) {
+            assertSame(error, e);
+        }
+
+        TransactionRunner.Counters counters = TransactionRunner.getCounters().get("TestPermanent");
+        assertEquals(1, counters.getAttempts());
+        assertEquals(0, counters.getRetries());
+        assertEquals(0, counters.getGiveUps());
+    }
+
+    @Test
+    public void testJoinsTheCurrentTransaction() throws Exception {
+        final RetryPolicy policy = new RetryPolicy("TestJoined", 3, 0, 0);
+        int attempts = ofy().transact(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return TransactionRunner.transact(policy, new FailingWork(null, 0));
+            }
+        });
+        assertEquals(1, attempts);
+        assertNull(TransactionRunner.getCounters().get("TestJoined"));
+    }
+
+    @Test
+    public void testClassify() throws Exception {
+        assertEquals(TransactionRunner.Failure.CONTENTION,
+                TransactionRunner.classify(new ConcurrentModificationException()));
+        assertEquals(TransactionRunner.Failure.CONTENTION, TransactionRunner.classify(
+                new RuntimeException(new ExecutionException(new ConcurrentModificationException()))));
+        assertEquals(TransactionRunner.Failure.TIMEOUT,
+                TransactionRunner.classify(new DatastoreTimeoutException("timeout")));
+        assertEquals(TransactionRunner.Failure.PERMANENT,
+                TransactionRunner.classify(new IllegalArgumentException()));
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        RetryPolicy policy = new RetryPolicy("TestBackoff", 8, 10, 100);
+        Random highest = new Random() {
+            @Override
+            public double nextDouble() {
+                return 0.9999;
+            }
+        };
+        assertEquals(10, policy.getBackoffMillis(1, highest));
+        assertEquals(20, policy.getBackoffMillis(2, highest));
+        assertEquals(80, policy.getBackoffMillis(4, highest));
+        assertEquals(100, policy.getBackoffMillis(5, highest));
+        assertEquals(100, policy.getBackoffMillis(7, highest));
+
+        Random random = new Random(42);
+        for (int retry = 1; retry < 8; retry++) {
+            long backoffMillis = policy.getBackoffMillis(retry, random);
+            assertTrue(backoffMillis >= 0 && backoffMillis <= 100);
+        }
+        assertEquals(0, new RetryPolicy("TestNoBackoff", 2, 0, 0).getBackoffMillis(3, random));
+    }
+}
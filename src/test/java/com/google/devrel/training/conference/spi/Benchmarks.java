@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.spi;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.logging.Logger;
+
+/**
+ * What the benchmarks have in common: they take a while, so they only run with
+ * -Dbenchmark=true, and they time repeated runs and log the results.
+ */
+final class Benchmarks {
+
+    private static final Logger LOG = Logger.getLogger(Benchmarks.class.getName());
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling benchmark class unless -Dbenchmark=true. Call it from a @BeforeClass
+     * method, so that no service stub is set up for nothing.
+     */
+    static void assumeEnabled() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * Logs a result, formatted with String.format().
+     */
+    static void report(String format, Object... args) {
+        LOG.info(String.format(format, args));
+    }
+
+    /**
+     * Sums the time of the runs between start() and stop().
+     */
+    static class Timer {
+
+        private long startNanos;
+
+        private long totalNanos;
+
+        private int runs;
+
+        void start() {
+            startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            totalNanos += System.nanoTime() - startNanos;
+            runs++;
+        }
+
+        double getTotalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        double getMeanMillis() {
+            return runs == 0 ? 0 : getTotalMillis() / runs;
+        }
+
+        /**
+         * Returns how many of the given operations were done per second over all the runs.
+         */
+        double getRate(int operations) {
+            return operations / (totalNanos / 1e9);
+        }
+    }
+}
@@ -3,18 +3,34 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferenceQueryCache;
+import com.google.devrel.training.conference.service.ConferenceQueryPlanner;
+import com.google.devrel.training.conference.service.FacetCounter;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.SearchIndexService;
+import com.googlecode.objectify.Key;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -112,6 +128,8 @@ public class ConferenceApiGlobalQueryTest {
     @After
     public void tearDown() throws Exception {
         ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
         helper.tearDown();
     }
 
@@ -119,7 +137,8 @@ public class ConferenceApiGlobalQueryTest {
     public void testEmptyQuery() throws Exception {
         // Empty query.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(3, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -138,7 +157,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Tokyo"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -152,7 +172,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Japan"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -176,7 +197,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "6"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
     }
@@ -190,7 +212,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GT,
                         "999"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -207,7 +230,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LT,
                         "1001"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -224,7 +248,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -241,7 +266,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -258,7 +284,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -266,7 +293,165 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference3, conferences.get(1));
     }
 
-    @Test(expected = IllegalArgumentException.class)
+    @Test
+    public void testGetConferenceAttendees() throws Exception {
+        User organizer = new User("organizer@gmail.com", "gmail.com", USER_ID);
+        for (int i = 0; i < 3; i++) {
+            String attendeeId = "attendee" + i;
+            ofy().save().entities(
+                    new Profile(attendeeId, attendeeId, attendeeId + "@gmail.com", null),
+                    new Registration(attendeeId, Key.<Conference>create(conference1.getWebsafeKey())))
+                    .now();
+        }
+
+        // Page through the attendees two at a time.
+        CollectionResponse<Profile> page = conferenceApi.getConferenceAttendees(
+                organizer, conference1.getWebsafeKey(), null, 2);
+        assertEquals(2, page.getItems().size());
+        assertNotNull(page.getNextPageToken());
+        page = conferenceApi.getConferenceAttendees(
+                organizer, conference1.getWebsafeKey(), page.getNextPageToken(), 2);
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testGetConferenceAttendeesNotOrganizer() throws Exception {
+        User attendee = new User("attendee@gmail.com", "gmail.com", "987654321");
+        conferenceApi.getConferenceAttendees(attendee, conference1.getWebsafeKey(), null, null);
+    }
+
+    @Test
+    public void testQueryPages() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm().page(2, null);
+        CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(page.getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+
+        conferenceQueryForm = new ConferenceQueryForm().page(2, page.getNextPageToken());
+        page = conferenceApi.queryConferences(conferenceQueryForm);
+        conferences = new ArrayList<>(page.getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testQueryConferenceSummaries() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                ));
+        List<ConferenceSummary> summaries = new ArrayList<>(
+                conferenceApi.queryConferenceSummaries(conferenceQueryForm).getItems());
+        assertEquals(1, summaries.size());
+        ConferenceSummary summary = summaries.get(0);
+        assertEquals(conference3.getWebsafeKey(), summary.getWebsafeKey());
+        assertEquals(conference3.getName(), summary.getName());
+        assertEquals("Tokyo", summary.getCity());
+        assertEquals(conference3.getStartDate(), summary.getStartDate());
+        assertEquals(conference3.getMaxAttendees(), summary.getSeatsAvailable());
+
+        // The second call is served from the query cache and gives the same summaries.
+        summaries = new ArrayList<>(
+                conferenceApi.queryConferenceSummaries(conferenceQueryForm).getItems());
+        assertEquals(1, summaries.size());
+        assertEquals(conference3.getWebsafeKey(), summaries.get(0).getWebsafeKey());
+    }
+
+    @Test
+    public void testNotEqualQueryPages() throws Exception {
+        // The != filter is run as the ranges below and above 1000, one page at a time.
+        List<Conference> conferences = new ArrayList<>(0);
+        String pageToken = null;
+        do {
+            ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.MAX_ATTENDEES,
+                            ConferenceQueryForm.Operator.NE,
+                            "1000"
+                    ))
+                    .page(1, pageToken);
+            CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+            conferences.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        assertEquals(2, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+    }
+
+    @Test
+    public void testMultiValuedNotEqualQuery() throws Exception {
+        // conference1 and conference3 have topics both below and above "Developer", so both
+        // ranges return them; they come once, sorted by their smallest topic other than it.
+        // The local datastore cannot resume a cursor on a multi-valued sort, hence one page.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.NE,
+                        "Developer"
+                ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(3, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+        assertEquals(conference2, conferences.get(2));
+    }
+
+    @Test
+    public void testEqualityAndInequalityQuery() throws Exception {
+        // A query specifies the topics and maxAttendees > 999.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Platform"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "999"
+                ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        ConferenceQueryForm.Filter platform = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.TOPIC, ConferenceQueryForm.Operator.EQ, "Platform");
+        ConferenceQueryForm.Filter bigConferences = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.MAX_ATTENDEES, ConferenceQueryForm.Operator.GT, "999");
+        long hits = ConferenceQueryCache.getHits();
+        long misses = ConferenceQueryCache.getMisses();
+
+        conferenceApi.queryConferences(new ConferenceQueryForm().filter(platform).filter(bigConferences));
+        assertEquals(misses + 1, ConferenceQueryCache.getMisses());
+
+        // The same filters in another order share the cache entry.
+        List<Conference> conferences = new ArrayList<>(conferenceApi.queryConferences(
+                new ConferenceQueryForm().filter(bigConferences).filter(platform)).getItems());
+        assertEquals(hits + 1, ConferenceQueryCache.getHits());
+        assertEquals(2, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+
+        // A Conference write makes the cached pages unreachable.
+        ConferenceQueryCache.invalidate();
+        conferenceApi.queryConferences(new ConferenceQueryForm().filter(platform).filter(bigConferences));
+        assertEquals(misses + 2, ConferenceQueryCache.getMisses());
+    }
+
+    @Test
     public void testMultipleInequalityFilter() throws Exception {
         // A query specifies the maxAttendees <= 1000 and month != 6.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
@@ -280,5 +465,280 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "6"
                 ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+    }
+
+    @Test
+    public void testMultipleInequalityFilterPages() throws Exception {
+        // A query specifies the month > 2 and maxAttendees < 2000, one item per page.
+        List<Conference> conferences = new ArrayList<>(0);
+        String pageToken = null;
+        do {
+            ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.MONTH,
+                            ConferenceQueryForm.Operator.GT,
+                            "2"
+                    ))
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.MAX_ATTENDEES,
+                            ConferenceQueryForm.Operator.LT,
+                            "2000"
+                    ))
+                    .page(1, pageToken);
+            CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+            conferences.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        // Both fields match all the conferences, so the first one is run and orders the results.
+        assertEquals(3, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference2, conferences.get(1));
+        assertEquals(conference3, conferences.get(2));
+    }
+
+    @Test
+    public void testPlannerChoosesMostSelectiveField() throws Exception {
+        // maxAttendees > 100 matches all the conferences, month > 8 only conference3.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "100"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "8"
+                ));
+        assertEquals(ConferenceQueryForm.Field.MONTH,
+                ConferenceQueryPlanner.chooseInequalityField(conferenceQueryForm));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+    }
+
+    @Test
+    public void testCityInQuery() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.IN,
+                        "Tokyo, San Francisco, London"
+                ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+        assertEquals(conference2, conferences.get(1));
+    }
+
+    @Test
+    public void testTopicInQueryPages() throws Exception {
+        // conference1 and conference3 have both topics, but are returned once.
+        List<Conference> conferences = new ArrayList<>(0);
+        String pageToken = null;
+        do {
+            ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.TOPIC,
+                            ConferenceQueryForm.Operator.IN,
+                            "Cloud,Platform"
+                    ))
+                    .page(1, pageToken);
+            CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+            conferences.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        assertEquals(3, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+        assertEquals(conference2, conferences.get(2));
+    }
+
+    @Test
+    public void testInAndInequalityQuery() throws Exception {
+        // A query specifies topic in {Cloud, Developer} and maxAttendees > 600.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.IN,
+                        "Cloud,Developer"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "600"
+                ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+    }
+
+    private void indexConferences() {
+        SearchIndexService.indexConferences(ImmutableList.of(conference1.getWebsafeKey(),
+                conference2.getWebsafeKey(), conference3.getWebsafeKey()));
+    }
+
+    @Test
+    public void testSearchConferences() throws Exception {
+        indexConferences();
+        // Only conference1 and conference3 have both words.
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.searchConferences("Cloud platform", null, null).getItems());
+        assertEquals(2, conferences.size());
+        assertTrue(conferences.contains(conference1));
+        assertTrue(conferences.contains(conference3));
+
+        conferences = new ArrayList<>(
+                conferenceApi.searchConferences("japan CLOUD", null, null).getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+
+        assertTrue(conferenceApi.searchConferences("Kyoto", null, null).getItems().isEmpty());
+        assertTrue(conferenceApi.searchConferences("the", null, null).getItems().isEmpty());
+    }
+
+    @Test
+    public void testSearchConferencesRanking() throws Exception {
+        indexConferences();
+        // "Google" is in the name of conference2, and only in the description of the others.
+        String pageToken = null;
+        List<Conference> conferences = new ArrayList<>(0);
+        do {
+            CollectionResponse<Conference> page =
+                    conferenceApi.searchConferences("google", pageToken, 1);
+            assertEquals(1, page.getItems().size());
+            conferences.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        assertEquals(3, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+    }
+
+    @Test
+    public void testReindexConference() throws Exception {
+        indexConferences();
+
+        // conference3 no longer has the Japan topic.
+        conference3.updateWithConferenceForm(new ConferenceForm(NAME3, DESCRIPTION3,
+                ImmutableList.of("Cloud", "Platform"), CITY3, startDate3, endDate3, CAP3));
+        ofy().save().entity(conference3).now();
+        SearchIndexService.indexConference(conference3.getWebsafeKey());
+        assertTrue(conferenceApi.searchConferences("japan", null, null).getItems().isEmpty());
+        assertEquals(2, conferenceApi.searchConferences("cloud", null, null).getItems().size());
+
+        // A deleted conference is removed from the index.
+        ofy().delete().entity(conference1).now();
+        SearchIndexService.indexConference(conference1.getWebsafeKey());
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.searchConferences("gcp", null, null).getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+    }
+
+    private static void assertFacetCounts(List<ConferenceFacets.FacetCount> counts,
+                                          Object... expected) {
+        assertEquals(expected.length / 2, counts.size());
+        for (int i = 0; i < counts.size(); i++) {
+            assertEquals(expected[2 * i], counts.get(i).getValue());
+            assertEquals(((Integer) expected[2 * i + 1]).longValue(), counts.get(i).getCount());
+        }
+    }
+
+    @Test
+    public void testGetConferenceFacets() throws Exception {
+        for (Conference conference : ImmutableList.of(conference1, conference2, conference3)) {
+            FacetCounter.updateCounts(conference.getWebsafeKey());
+        }
+        ConferenceFacets facets = conferenceApi.getConferenceFacets();
+        assertFacetCounts(facets.getCities(), CITY1, 1, CITY2, 1, CITY3, 1);
+        assertFacetCounts(facets.getTopics(),
+                "Platform", 3, "Cloud", 2, "Developer", 1, "Japan", 1);
+        assertFacetCounts(facets.getMonths(), "3", 1, "6", 1, "9", 1);
+
+        // conference3 moves to San Francisco in June and drops the Japan and Platform topics.
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        conference3.updateWithConferenceForm(new ConferenceForm(NAME3, DESCRIPTION3,
+                ImmutableList.of("Cloud"), CITY2, dateFormat.parse("06/10/2014"),
+                dateFormat.parse("06/11/2014"), CAP3));
+        ofy().save().entity(conference3).now();
+        FacetCounter.updateCounts(conference3.getWebsafeKey());
+        // Running the update again doesn't count conference3 twice.
+        FacetCounter.updateCounts(conference3.getWebsafeKey());
+
+        facets = conferenceApi.getConferenceFacets();
+        assertFacetCounts(facets.getCities(), CITY2, 2, CITY1, 1);
+        assertFacetCounts(facets.getTopics(), "Cloud", 2, "Platform", 2, "Developer", 1);
+        assertFacetCounts(facets.getMonths(), "6", 2, "3", 1);
+
+        // A deleted conference is no longer counted.
+        ofy().delete().entity(conference1).now();
+        FacetCounter.updateCounts(conference1.getWebsafeKey());
+        facets = conferenceApi.getConferenceFacets();
+        assertFacetCounts(facets.getCities(), CITY2, 2);
+        assertFacetCounts(facets.getMonths(), "6", 2);
+    }
+
+    private List<Conference> queryDates(String dateRange) throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.DATES,
+                        ConferenceQueryForm.Operator.OVERLAPS,
+                        dateRange
+                ));
+        return new ArrayList<>(conferenceApi.queryConferences(conferenceQueryForm).getItems());
+    }
+
+    @Test
+    public void testDateRangeQuery() throws Exception {
+        List<Conference> conferences = queryDates("2014-03-01/2014-06-30");
+        assertEquals(2, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference2, conferences.get(1));
+
+        conferences = queryDates("2014-09-26/2014-12-31");
+        assertEquals(1, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+
+        assertTrue(queryDates("2014-03-28/2014-06-23").isEmpty());
+        // The same week as conference1, but before it starts.
+        assertTrue(queryDates("2014-03-20/2014-03-23").isEmpty());
+    }
+
+    @Test
+    public void testDateRangeAndCityQuery() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.DATES,
+                        ConferenceQueryForm.Operator.OVERLAPS,
+                        "2014-01-01/2014-12-31"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        CITY3
+                ));
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm.page(1, null)).getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testDateRangeQueryTooLong() throws Exception {
+        // More periods than MAX_QUERIES.
+        queryDates("2000-01-01/2014-12-31");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testInvalidDateRange() throws Exception {
+        queryDates("2014-03-01");
     }
 }
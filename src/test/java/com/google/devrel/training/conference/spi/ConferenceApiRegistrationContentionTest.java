@@ -0,0 +1,129 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.SeatCounter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires parallel registrations for one conference at the local datastore stub.
+ */
+public class ConferenceApiRegistrationContentionTest {
+
+    private static final String ORGANIZER_EMAIL = "organizer@gmail.com";
+
+    private static final String ORGANIZER_USER_ID = "100000000";
+
+    private static final int CAP = 150;
+
+    private static final int REGISTRATIONS = 200;
+
+    private static final int THREADS = 8;
+
+    private ConferenceApi conferenceApi;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testParallelRegistrations() throws Exception {
+        User organizer = new User(ORGANIZER_EMAIL, "gmail.com", ORGANIZER_USER_ID);
+        ConferenceForm conferenceForm = new ConferenceForm(
+                "Launch Day", "Registration opens at noon", null, "Tokyo", null, null, CAP);
+        final String websafeConferenceKey =
+                conferenceApi.createConference(organizer, conferenceForm).getWebsafeKey();
+
+        final List<User> attendees = new ArrayList<>(REGISTRATIONS);
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            User attendee = new User("attendee" + i + "@gmail.com", "gmail.com", "2" + i);
+            conferenceApi.saveProfile(attendee, new ProfileForm(null, null));
+            attendees.add(attendee);
+        }
+        ofy().clear();
+
+        // Worker threads need the test environment of the local services.
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> futures = new ArrayList<>(REGISTRATIONS);
+        for (final User attendee : attendees) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                    ofy().clear();
+                    try {
+                        return conferenceApi.registerForConference(
+                                attendee, websafeConferenceKey, null).getResult();
+                    } catch (ConflictException e) {
+                        return false;
+                    }
+                }
+            }));
+        }
+
+        int booked = 0;
+        int rejected = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                booked++;
+            } else {
+                rejected++;
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(CAP, booked);
+        assertEquals(REGISTRATIONS - CAP, rejected);
+
+        ofy().clear();
+        Conference conference = conferenceApi.getConference(websafeConferenceKey);
+        assertEquals(0, conference.getSeatsAvailable());
+        assertEquals(SeatCounter.shardCountFor(CAP), conference.getSeatShardCount());
+        for (SeatShard shard : ofy().load().keys(SeatCounter.shardKeys(conference)).values()) {
+            assertEquals(shard.getCapacity(), shard.getSeatsAllocated());
+        }
+    }
+}
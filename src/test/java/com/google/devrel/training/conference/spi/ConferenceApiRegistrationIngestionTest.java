@@ -0,0 +1,114 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.RegistrationIngestion;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the registrations of ConferenceApi ingested from the pull queue by
+ * RegistrationIngestion.
+ */
+public class ConferenceApiRegistrationIngestionTest {
+
+    private ConferenceApi conferenceApi;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                            .setDisableAutoTaskExecution(true));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        System.setProperty(RegistrationIngestion.MODE_PROPERTY, RegistrationIngestion.QUEUED);
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(RegistrationIngestion.MODE_PROPERTY);
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@gmail.com", "gmail.com", "5" + i);
+    }
+
+    private String getStatus(User user, String websafeConferenceKey) throws Exception {
+        ofy().clear();
+        return conferenceApi.getRegistrationStatus(user, websafeConferenceKey).getReason();
+    }
+
+    @Test
+    public void testQueuedRegistration() throws Exception {
+        String websafeConferenceKey = conferenceApi.createConference(user(0),
+                new ConferenceForm("Hack Night", null, null, "Tokyo", null, null, 2))
+                .getWebsafeKey();
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(RegistrationIngestion.PENDING, conferenceApi
+                    .registerForConference(user(i), websafeConferenceKey, null).getReason());
+        }
+        // Enqueued twice, registered once.
+        conferenceApi.registerForConference(user(1), websafeConferenceKey, null);
+        assertEquals(RegistrationIngestion.PENDING, getStatus(user(1), websafeConferenceKey));
+        assertEquals("Not registered", getStatus(user(4), websafeConferenceKey));
+        assertEquals(2, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // The two seats go to two of the users, and the third one is told why not.
+        assertEquals(4, RegistrationIngestion.ingest(conferenceKey));
+        int registered = 0;
+        for (int i = 1; i <= 3; i++) {
+            String status = getStatus(user(i), websafeConferenceKey);
+            if ("Registration successful".equals(status)) {
+                registered++;
+            } else {
+                assertEquals("No seats available", status);
+            }
+        }
+        assertEquals(2, registered);
+        ofy().clear();
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // The queue is empty now.
+        assertEquals(0, RegistrationIngestion.ingest(conferenceKey));
+
+        // Registered users are refused before anything is enqueued.
+        User registeredUser = null;
+        for (int i = 1; i <= 3; i++) {
+            if (conferenceApi.getRegistrationStatus(user(i), websafeConferenceKey).getResult()) {
+                registeredUser = user(i);
+            }
+        }
+        try {
+            conferenceApi.registerForConference(registeredUser, websafeConferenceKey, null);
+            fail("registerForConference should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertEquals(0, RegistrationIngestion.ingest(conferenceKey));
+    }
+}
@@ -0,0 +1,158 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.SeatHoldService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests for the seat holds of ConferenceApi and their sweeping by SeatHoldService.
+ */
+public class ConferenceApiSeatHoldTest {
+
+    private ConferenceApi conferenceApi;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@gmail.com", "gmail.com", "4" + i);
+    }
+
+    private int getSeatsAvailable(String websafeConferenceKey) throws Exception {
+        ofy().clear();
+        return conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable();
+    }
+
+    @Test
+    public void testReserveAndConfirm() throws Exception {
+        String websafeConferenceKey = conferenceApi.createConference(user(0),
+                new ConferenceForm("Paid Workshop", null, null, "Tokyo", null, null, 1))
+                .getWebsafeKey();
+        User holder = user(1);
+        User other = user(2);
+
+        SeatHold hold = conferenceApi.reserveSeat(holder, websafeConferenceKey);
+        assertTrue(hold.getExpiration().after(new Date()));
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+        try {
+            conferenceApi.reserveSeat(other, websafeConferenceKey);
+            fail("reserveSeat should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        // Reserving again renews the same hold.
+        assertNotNull(conferenceApi.reserveSeat(holder, websafeConferenceKey));
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+
+        assertTrue(conferenceApi.confirmReservation(holder, websafeConferenceKey).getResult());
+        ofy().clear();
+        assertTrue(conferenceApi.isRegisteredForConference(holder, websafeConferenceKey)
+                .getResult());
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+        try {
+            conferenceApi.confirmReservation(holder, websafeConferenceKey);
+            fail("confirmReservation should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        // A confirmed seat is not swept.
+        assertEquals(0, SeatHoldService.sweepExpired(
+                new Date(System.currentTimeMillis() + 2 * SeatHoldService.HOLD_SECONDS * 1000L)));
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+    }
+
+    @Test
+    public void testReserveThenRegister() throws Exception {
+        String websafeConferenceKey = conferenceApi.createConference(user(0),
+                new ConferenceForm("Paid Workshop", null, null, "Tokyo", null, null, 2))
+                .getWebsafeKey();
+        User holder = user(1);
+        conferenceApi.reserveSeat(holder, websafeConferenceKey);
+        assertEquals(1, getSeatsAvailable(websafeConferenceKey));
+
+        // Registering converts the hold instead of booking a second seat.
+        assertTrue(conferenceApi.registerForConference(holder, websafeConferenceKey, null)
+                .getResult());
+        assertEquals(1, getSeatsAvailable(websafeConferenceKey));
+        assertNull(ofy().load().key(
+                SeatHold.createKey(holder.getUserId(), websafeConferenceKey)).now());
+
+        // The converted seat is not swept.
+        assertEquals(0, SeatHoldService.sweepExpired(
+                new Date(System.currentTimeMillis() + 2 * SeatHoldService.HOLD_SECONDS * 1000L)));
+        assertEquals(1, getSeatsAvailable(websafeConferenceKey));
+        assertTrue(conferenceApi.registerForConference(user(2), websafeConferenceKey, null)
+                .getResult());
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+    }
+
+    @Test
+    public void testExpiredHoldIsSwept() throws Exception {
+        String websafeConferenceKey = conferenceApi.createConference(user(0),
+                new ConferenceForm("Paid Workshop", null, null, "Tokyo", null, null, 1))
+                .getWebsafeKey();
+        User holder = user(1);
+        User other = user(2);
+        conferenceApi.reserveSeat(holder, websafeConferenceKey);
+
+        // Let the hold expire.
+        ofy().clear();
+        SeatHold hold = ofy().load().key(
+                SeatHold.createKey(holder.getUserId(), websafeConferenceKey)).now();
+        hold.renew(new Date(System.currentTimeMillis() - 1000));
+        ofy().save().entity(hold).now();
+
+        try {
+            conferenceApi.confirmReservation(holder, websafeConferenceKey);
+            fail("confirmReservation should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        // The seat stays booked until the hold is swept.
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+
+        ofy().clear();
+        assertEquals(1, SeatHoldService.sweepExpired(new Date()));
+        assertEquals(1, getSeatsAvailable(websafeConferenceKey));
+        assertEquals(0, SeatHoldService.sweepExpired(new Date()));
+
+        assertNotNull(conferenceApi.reserveSeat(other, websafeConferenceKey));
+        assertEquals(0, getSeatsAvailable(websafeConferenceKey));
+    }
+}
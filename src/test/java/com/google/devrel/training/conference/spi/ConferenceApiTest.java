@@ -3,17 +3,33 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 // import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.AppEngineUser;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.GroupRegistrationResult;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.Session;
 // import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.GroupRegistrationForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.RpcAccounting;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.google.devrel.training.conference.service.UserIdResolver;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
@@ -23,6 +39,8 @@ import org.junit.Test;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -67,6 +85,8 @@ public class ConferenceApiTest {
     @After
     public void tearDown() throws Exception {
         ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
         helper.tearDown();
     }
 
@@ -197,6 +217,8 @@ public class ConferenceApiTest {
         assertEquals(CAP, conference.getMaxAttendees());
         assertEquals(CAP, conference.getSeatsAvailable());
         assertEquals(MONTH, conference.getMonth());
+        assertTrue("The organizer's name should be stored on the conference.",
+                conference.hasOrganizerDisplayName());
         // Check if a new Profile is created
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertEquals(USER_ID, profile.getUserId());
@@ -221,7 +243,8 @@ public class ConferenceApiTest {
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
         Conference conference = conferenceApi.createConference(user, conferenceForm);
 
-        List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
+        Collection<Conference> conferencesCreated =
+                conferenceApi.getConferencesCreated(user, null, null).getItems();
         assertEquals(1, conferencesCreated.size());
         assertTrue("The result should contain a conference",
                 conferencesCreated.contains(conference));
@@ -273,23 +296,384 @@ public class ConferenceApiTest {
 
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        Registration registration = ofy().load().key(
+                Registration.createKey(USER_ID, conference.getWebsafeKey())).now();
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
-        assertTrue("Profile should have the conferenceId in conferenceIdsToAttend.",
-                profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertNotNull("There should be a Registration for the conference.", registration);
+        assertTrue("isRegisteredForConference should return true.",
+                conferenceApi.isRegisteredForConference(
+                        user, conference.getWebsafeKey()).getResult());
+        assertEquals(1, conferenceApi.getConferencesToAttend(user, null, null).getItems().size());
 
         // Unregister
         result = conferenceApi.unregisterFromConference(
                 user, conference.getWebsafeKey()).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        registration = ofy().load().key(
+                Registration.createKey(USER_ID, conference.getWebsafeKey())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());
-        assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
-                profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertNull("The Registration should be deleted.", registration);
+        assertFalse("isRegisteredForConference should return false.",
+                conferenceApi.isRegisteredForConference(
+                        user, conference.getWebsafeKey()).getResult());
+    }
+
+    @Test
+    public void testRegisterForConferenceWithRequestId() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Conference other = conferenceApi.createConference(user, new ConferenceForm(
+                "GCP Roadshow", DESCRIPTION, null, CITY, null, null, CAP));
+        String websafeConferenceKey = conference.getWebsafeKey();
+        assertTrue(conferenceApi.registerForConference(
+                user, websafeConferenceKey, "request-1").getResult());
+
+        // A retry gets the recorded outcome, without a transaction.
+        RpcAccounting accounting = RpcAccounting.begin("registerForConference");
+        try {
+            assertTrue(conferenceApi.registerForConference(
+                    user, websafeConferenceKey, "request-1").getResult());
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(0, accounting.getTransactions());
+
+        // The outcome is also found in the datastore when it is no longer in memcache.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        ofy().clear();
+        assertTrue(conferenceApi.registerForConference(
+                user, websafeConferenceKey, "request-1").getResult());
+        assertEquals(CAP - 1, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // Another call is still refused, and its refusal is replayed too.
+        for (int i = 0; i < 2; i++) {
+            try {
+                conferenceApi.registerForConference(user, websafeConferenceKey, "request-2");
+                fail("registerForConference should throw ConflictException.");
+            } catch (ConflictException e) {
+                // Expected.
+            }
+        }
+
+        try {
+            conferenceApi.registerForConference(user, other.getWebsafeKey(), "request-1");
+            fail("registerForConference should throw BadRequestException.");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testRegisterGroupForConference() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 3));
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        GroupRegistrationResult result = conferenceApi.registerGroupForConference(
+                user, websafeConferenceKey, new GroupRegistrationForm(Arrays.asList(
+                        "alice@gmail.com", "bob@gmail.com", "not an email", "alice@gmail.com")));
+        assertEquals(2, result.getRegisteredCount());
+        assertEquals(3, result.getAttendees().size());
+        for (GroupRegistrationResult.AttendeeResult attendee : result.getAttendees()) {
+            assertEquals(!"not an email".equals(attendee.getEmail()), attendee.isRegistered());
+        }
+        assertEquals(1, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        String aliceUserId = UserIdResolver.getUserId(new User("alice@gmail.com", "gmail.com"));
+        Profile alice = ofy().load().key(Key.create(Profile.class, aliceUserId)).now();
+        assertEquals("alice", alice.getDisplayName());
+        assertNotNull(ofy().load().key(
+                Registration.createKey(aliceUserId, websafeConferenceKey)).now());
+
+        // The seats of a group are booked all at once or not at all.
+        result = conferenceApi.registerGroupForConference(
+                user, websafeConferenceKey, new GroupRegistrationForm(Arrays.asList(
+                        "alice@gmail.com", "carol@gmail.com", "dave@gmail.com")));
+        assertEquals(0, result.getRegisteredCount());
+        for (GroupRegistrationResult.AttendeeResult attendee : result.getAttendees()) {
+            assertEquals("alice@gmail.com".equals(attendee.getEmail())
+                    ? "Already registered" : "No seats available", attendee.getReason());
+        }
+        assertEquals(1, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        result = conferenceApi.registerGroupForConference(
+                user, websafeConferenceKey,
+                new GroupRegistrationForm(Arrays.asList("carol@gmail.com")));
+        assertEquals(1, result.getRegisteredCount());
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+    }
+
+    @Test
+    public void testGetConferencesToAttendSkipsDeletedConferences() throws Exception {
+        Conference conference1 = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Conference conference2 = conferenceApi.createConference(user, new ConferenceForm(
+                "GCP Roadshow", DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.registerForConference(user, conference1.getWebsafeKey(), null);
+        conferenceApi.registerForConference(user, conference2.getWebsafeKey(), null);
+
+        ofy().delete().key(Key.create(conference2.getWebsafeKey())).now();
+        ofy().clear();
+
+        Collection<Conference> conferences =
+                conferenceApi.getConferencesToAttend(user, null, null).getItems();
+        assertEquals(1, conferences.size());
+        Conference conference = conferences.iterator().next();
+        assertEquals(conference1.getWebsafeKey(), conference.getWebsafeKey());
+        assertEquals(CAP - 1, conference.getSeatsAvailable());
+        assertEquals(EMAIL.substring(0, EMAIL.indexOf("@")), conference.getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testGetConferencesCreatedPages() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + " " + i, DESCRIPTION, null, CITY, null, null, CAP));
+        }
+
+        CollectionResponse<Conference> page = conferenceApi.getConferencesCreated(user, null, 2);
+        List<Conference> conferences = new ArrayList<>(page.getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(NAME + " 0", conferences.get(0).getName());
+        assertEquals(NAME + " 1", conferences.get(1).getName());
+        assertNotNull(page.getNextPageToken());
+
+        page = conferenceApi.getConferencesCreated(user, page.getNextPageToken(), 2);
+        conferences = new ArrayList<>(page.getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(NAME + " 2", conferences.get(0).getName());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testGetConferenceSummariesCreated() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        for (int i = 0; i < 3; i++) {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + " " + i, DESCRIPTION, null, CITY, startDate, endDate, CAP));
+        }
+
+        CollectionResponse<ConferenceSummary> page =
+                conferenceApi.getConferenceSummariesCreated(user, null, 2);
+        List<ConferenceSummary> summaries = new ArrayList<>(page.getItems());
+        assertEquals(2, summaries.size());
+        ConferenceSummary summary = summaries.get(0);
+        assertEquals(NAME + " 0", summary.getName());
+        assertEquals(CITY, summary.getCity());
+        assertEquals(startDate, summary.getStartDate());
+        assertEquals(endDate, summary.getEndDate());
+        assertEquals(CAP, summary.getMaxAttendees());
+        assertEquals(CAP, summary.getSeatsAvailable());
+        assertEquals(DISPLAY_NAME, summary.getOrganizerDisplayName());
+        assertNotNull(summary.getWebsafeKey());
+        assertEquals(NAME + " 1", summaries.get(1).getName());
+        assertNotNull(page.getNextPageToken());
+
+        page = conferenceApi.getConferenceSummariesCreated(user, page.getNextPageToken(), 2);
+        summaries = new ArrayList<>(page.getItems());
+        assertEquals(1, summaries.size());
+        assertEquals(NAME + " 2", summaries.get(0).getName());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testGetConferencesCreatedInvalidPageToken() throws Exception {
+        conferenceApi.getConferencesCreated(user, "not a cursor", null);
+    }
+
+    @Test
+    public void testRpcAccounting() throws Exception {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(0);
+        RpcAccounting accounting = RpcAccounting.begin("createConference");
+        try {
+            for (int i = 0; i < 12; i++) {
+                Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                        NAME + " " + i, DESCRIPTION, null, CITY, null, null, CAP));
+                conferenceKeys.add(Key.<Conference>create(conference.getWebsafeKey()));
+            }
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(conferenceKeys.size(), accounting.getTransactions());
+        assertTrue(accounting.getSaves() >= conferenceKeys.size());
+        assertEquals(0, accounting.getRetries());
+
+        // Loading the conferences one by one is counted as such.
+        ofy().clear();
+        accounting = RpcAccounting.begin("loadOneByOne");
+        try {
+            for (Key<Conference> conferenceKey : conferenceKeys) {
+                ofy().load().key(conferenceKey).now();
+            }
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(conferenceKeys.size(), accounting.getLoads());
+        assertEquals(conferenceKeys.size(), accounting.getOneByOneLoads("Conference"));
+
+        // A batch load is served from memcache, which the one-by-one loads filled, once the
+        // near cache is dropped.
+        ofy().clear();
+        NearCache.invalidateAll();
+        accounting = RpcAccounting.begin("loadBatch");
+        try {
+            ofy().load().keys(conferenceKeys);
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(0, accounting.getLoads());
+        assertEquals(conferenceKeys.size(), accounting.getEntityMemcacheHits());
+        assertEquals(0, accounting.getMemcacheHits());
+        assertEquals(0, accounting.getOneByOneLoads("Conference"));
+
+        // Loads one by one served from memcache are counted as such too.
+        ofy().clear();
+        NearCache.invalidateAll();
+        accounting = RpcAccounting.begin("loadOneByOneFromMemcache");
+        try {
+            for (Key<Conference> conferenceKey : conferenceKeys) {
+                ofy().load().key(conferenceKey).now();
+            }
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(0, accounting.getLoads());
+        assertEquals(conferenceKeys.size(), accounting.getEntityMemcacheHits());
+        assertEquals(conferenceKeys.size(), accounting.getOneByOneLoads("Conference"));
+        assertNull(RpcAccounting.current());
+    }
+
+    @Test
+    public void testCreateConferenceRpcCount() throws Exception {
+        RpcAccounting accounting = RpcAccounting.begin("createConference");
+        try {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        } finally {
+            RpcAccounting.end();
+        }
+        // The Profile is read, then the new Profile, the Conference and its seat shards are
+        // saved together.
+        assertEquals(1, accounting.getTransactions());
+        assertEquals(1, accounting.getLoads());
+        assertEquals(1, accounting.getSaves());
+        assertTrue(accounting.getSavedEntities() > 2);
+
+        // Once the Profile exists it is not saved again.
+        accounting = RpcAccounting.begin("createConference");
+        try {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + " 2", DESCRIPTION, null, CITY, null, null, CAP));
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(1, accounting.getSaves());
+        assertEquals(1 + SeatCounter.shardCountFor(CAP), accounting.getSavedEntities());
+    }
+
+    @Test
+    public void testCreateSessionRpcCount() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().clear();
+        List<String> speakers = new ArrayList<>();
+        speakers.add("Speaker One");
+        speakers.add("Speaker Two");
+        SessionForm sessionForm = new SessionForm("Keynote", "Highlights", "KEYNOTE", speakers,
+                new Date(), new Date(), new Date());
+
+        RpcAccounting accounting = RpcAccounting.begin("createSession");
+        Session session;
+        try {
+            session = conferenceApi.createSession(sessionForm, conference.getWebsafeKey());
+        } finally {
+            RpcAccounting.end();
+        }
+        // The Conference and the speakers are read in two gets, the Session and the two new
+        // speakers are saved in one put, and the unchanged Conference is not saved.
+        assertEquals(2, accounting.getLoads());
+        assertEquals(1, accounting.getSaves());
+        assertEquals(3, accounting.getSavedEntities());
+        ofy().clear();
+        assertNotNull(ofy().load().key(Key.create(Key.<Conference>create(
+                conference.getWebsafeKey()), Session.class, session.getId())).now());
+    }
+
+    @Test
+    public void testSaveProfileWithoutUserIdInUser() throws Exception {
+        // The datastore fills in the userId of the Users it stores, as here.
+        ofy().save().entity(new AppEngineUser(user)).now();
+        User androidUser = new User(EMAIL, "gmail.com");
+
+        Profile profile = conferenceApi.saveProfile(
+                androidUser, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        assertEquals(USER_ID, profile.getUserId());
+
+        // Once resolved, the userId costs no more RPCs.
+        RpcAccounting accounting = RpcAccounting.begin("getUserId");
+        try {
+            assertEquals(USER_ID, UserIdResolver.getUserId(androidUser));
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(0, accounting.getLoads());
+        assertEquals(0, accounting.getSaves());
+        assertEquals(0, accounting.getMemcacheHits());
+    }
+
+    @Test
+    public void testNearCache() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        ofy().clear();
+        ofy().load().key(conferenceKey).now();
+        long hits = NearCache.getStats().hitCount();
+
+        // Read again in a new session, the conference comes from the near cache without RPCs.
+        ofy().clear();
+        RpcAccounting accounting = RpcAccounting.begin("getConference");
+        try {
+            assertEquals(NAME, ofy().load().key(conferenceKey).now().getName());
+        } finally {
+            RpcAccounting.end();
+        }
+        assertEquals(hits + 1, NearCache.getStats().hitCount());
+        assertEquals(0, accounting.getLoads());
+        assertEquals(0, accounting.getMemcacheHits());
+
+        // Saving the conference invalidates it.
+        conference.updateWithConferenceForm(new ConferenceForm(
+                NAME + " 2", DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        ofy().clear();
+        assertEquals(NAME + " 2", ofy().load().key(conferenceKey).now().getName());
+    }
+
+    @Test
+    public void testMigrateLegacyRegistrations() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        // A Profile written before Registrations existed.
+        Profile profile = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        profile.addToConferenceKeysToAttend(conference.getWebsafeKey());
+        ofy().save().entity(profile).now();
+
+        assertTrue("The legacy registration should be honored.",
+                conferenceApi.isRegisteredForConference(
+                        user, conference.getWebsafeKey()).getResult());
+        profile = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        assertTrue("The legacy list should be emptied.",
+                profile.getConferenceKeysToAttend().isEmpty());
+        assertNotNull(ofy().load().key(
+                Registration.createKey(USER_ID, conference.getWebsafeKey())).now());
     }
 
 }
@@ -0,0 +1,127 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the waitlist of ConferenceApi and its promotion by WaitlistService.
+ */
+public class ConferenceApiWaitlistTest {
+
+    private static final int WAITING = 3;
+
+    private ConferenceApi conferenceApi;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@gmail.com", "gmail.com", "3" + i);
+    }
+
+    private boolean isRegistered(User user, String websafeConferenceKey) throws Exception {
+        ofy().clear();
+        return conferenceApi.isRegisteredForConference(user, websafeConferenceKey).getResult();
+    }
+
+    @Test
+    public void testWaitlistPromotion() throws Exception {
+        User organizer = user(0);
+        String websafeConferenceKey = conferenceApi.createConference(organizer,
+                new ConferenceForm("Launch Day", null, null, "Tokyo", null, null, 1))
+                .getWebsafeKey();
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        assertTrue(conferenceApi.registerForConference(organizer, websafeConferenceKey, null)
+                .getResult());
+
+        List<User> waiting = new ArrayList<>(WAITING);
+        for (int i = 1; i <= WAITING; i++) {
+            User user = user(i);
+            conferenceApi.saveProfile(user, new ProfileForm("User " + i, null));
+            assertTrue(conferenceApi.joinWaitlist(user, websafeConferenceKey).getResult());
+            waiting.add(user);
+            // Keep the join dates apart, so that the FIFO order is well defined.
+            Thread.sleep(2);
+        }
+        assertEquals("Already on the waitlist",
+                conferenceApi.joinWaitlist(waiting.get(0), websafeConferenceKey).getReason());
+        try {
+            conferenceApi.joinWaitlist(organizer, websafeConferenceKey);
+            fail("joinWaitlist should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        // Nobody is promoted while the conference is full.
+        assertTrue(WaitlistService.promote(conferenceKey).isEmpty());
+
+        // The seat given back goes to the first user who joined.
+        assertTrue(conferenceApi.unregisterFromConference(organizer, websafeConferenceKey)
+                .getResult());
+        ofy().clear();
+        List<WaitlistEntry> promoted = WaitlistService.promote(conferenceKey);
+        assertEquals(1, promoted.size());
+        assertEquals(waiting.get(0).getUserId(), promoted.get(0).getUserId());
+        assertTrue(isRegistered(waiting.get(0), websafeConferenceKey));
+        assertFalse(isRegistered(waiting.get(1), websafeConferenceKey));
+        assertNull(ofy().load().key(WaitlistEntry.createKey(
+                waiting.get(0).getUserId(), websafeConferenceKey)).now());
+
+        // Users who leave the waitlist are skipped.
+        assertTrue(conferenceApi.leaveWaitlist(waiting.get(1), websafeConferenceKey).getResult());
+        try {
+            conferenceApi.leaveWaitlist(waiting.get(1), websafeConferenceKey);
+            fail("leaveWaitlist should throw ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertTrue(conferenceApi.unregisterFromConference(waiting.get(0), websafeConferenceKey)
+                .getResult());
+        ofy().clear();
+        promoted = WaitlistService.promote(conferenceKey);
+        assertEquals(1, promoted.size());
+        assertEquals(waiting.get(2).getUserId(), promoted.get(0).getUserId());
+        assertFalse(isRegistered(waiting.get(1), websafeConferenceKey));
+        assertTrue(isRegistered(waiting.get(2), websafeConferenceKey));
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+    }
+}
@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Delays the result of every datastore call by the given latency from the time it was made, so
+ * that calls made concurrently overlap as they would over the network.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+class DatastoreLatencyDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    private final ApiProxy.Delegate delegate;
+
+    private final long latencyMillis;
+
+    DatastoreLatencyDelegate(ApiProxy.Delegate delegate, long latencyMillis) {
+        this.delegate = delegate;
+        this.latencyMillis = latencyMillis;
+    }
+
+    private static void sleepUntil(long readyAt) throws InterruptedException {
+        long remaining = readyAt - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    @Override
+    public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+                               String methodName, byte[] request) {
+        if (DATASTORE_PACKAGE.equals(packageName)) {
+            try {
+                sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return delegate.makeSyncCall(environment, packageName, methodName, request);
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+                                        String methodName, byte[] request,
+                                        ApiProxy.ApiConfig apiConfig) {
+        final Future<byte[]> future = delegate.makeAsyncCall(
+                environment, packageName, methodName, request, apiConfig);
+        if (!DATASTORE_PACKAGE.equals(packageName)) {
+            return future;
+        }
+        final long readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        return new Future<byte[]>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return future.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return future.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return future.isDone() && System.nanoTime() >= readyAt;
+            }
+
+            @Override
+            public byte[] get() throws InterruptedException, ExecutionException {
+                sleepUntil(readyAt);
+                return future.get();
+            }
+
+            @Override
+            public byte[] get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                sleepUntil(readyAt);
+                return future.get(timeout, unit);
+            }
+        };
+    }
+
+    @Override
+    public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+        delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(ApiProxy.Environment environment) {
+        delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+        return delegate.getRequestThreads(environment);
+    }
+}
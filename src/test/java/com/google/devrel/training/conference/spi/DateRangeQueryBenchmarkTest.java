@@ -0,0 +1,149 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferenceQueryService;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares date range queries on the date buckets with a full scan, over 20,000 conferences
+ * spread over five years in the local datastore stub.
+ *
+ * It takes a while, so it only runs with -Dbenchmark=true.
+ */
+public class DateRangeQueryBenchmarkTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CONFERENCES = 20000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * 2014-01-01 in UTC.
+     */
+    private static final long FIRST_DAY = 16071 * DAY_MILLIS;
+
+    private static final int DAYS = 5 * 365;
+
+    private static final String[] RANGES = {
+            "2015-03-03/2015-03-10", "2016-06-01/2016-06-30", "2014-01-01/2014-12-31"};
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0)
+                            .setNoStorage(true),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    private ConferenceApi conferenceApi;
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private Set<String> queryBuckets(String range) throws Exception {
+        Set<String> websafeConferenceKeys = new HashSet<>();
+        String pageToken = null;
+        do {
+            ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.DATES,
+                            ConferenceQueryForm.Operator.OVERLAPS,
+                            range))
+                    .page(ConferenceQueryService.MAX_PAGE_SIZE, pageToken);
+            CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+            for (Conference conference : page.getItems()) {
+                websafeConferenceKeys.add(conference.getWebsafeKey());
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return websafeConferenceKeys;
+    }
+
+    private Set<String> scan(String range) {
+        ConferenceQueryForm.Filter filter = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.DATES, ConferenceQueryForm.Operator.OVERLAPS, range);
+        Set<String> websafeConferenceKeys = new HashSet<>();
+        for (Conference conference : ofy().load().type(Conference.class)) {
+            if (filter.matches(conference)) {
+                websafeConferenceKeys.add(conference.getWebsafeKey());
+            }
+        }
+        return websafeConferenceKeys;
+    }
+
+    @Test
+    public void benchmarkDateRangeQuery() throws Exception {
+        Random random = new Random(42);
+        for (int id = 1; id <= CONFERENCES; id += BATCH_SIZE) {
+            List<Conference> conferences = new ArrayList<>(BATCH_SIZE);
+            for (int i = id; i < id + BATCH_SIZE; i++) {
+                Date startDate = new Date(FIRST_DAY + random.nextInt(DAYS) * DAY_MILLIS);
+                Date endDate = new Date(startDate.getTime() + random.nextInt(5) * DAY_MILLIS);
+                conferences.add(new Conference(i, USER_ID, new ConferenceForm(
+                        "Conference " + i, null, null, null, startDate, endDate, 100)));
+            }
+            ofy().save().entities(conferences).now();
+            ofy().clear();
+        }
+
+        for (String range : RANGES) {
+            ofy().clear();
+            Benchmarks.Timer bucketTimer = new Benchmarks.Timer();
+            bucketTimer.start();
+            Set<String> bucketResults = queryBuckets(range);
+            bucketTimer.stop();
+
+            ofy().clear();
+            Benchmarks.Timer scanTimer = new Benchmarks.Timer();
+            scanTimer.start();
+            Set<String> scanResults = scan(range);
+            scanTimer.stop();
+
+            Benchmarks.report("%s: %d conferences, buckets %.0f ms, full scan %.0f ms",
+                    range, scanResults.size(), bucketTimer.getTotalMillis(),
+                    scanTimer.getTotalMillis());
+            assertEquals(scanResults, bucketResults);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.RegistrationIngestion;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of registrations booked in the request with registrations ingested
+ * from the pull queue, against the local stubs with every datastore call delayed to look like a
+ * network round trip.
+ *
+ * It takes a while, so it only runs with -Dbenchmark=true.
+ */
+public class RegistrationIngestionBenchmarkTest {
+
+    /**
+     * Simulated round trip of a datastore call.
+     */
+    private static final long LATENCY_MILLIS = 20;
+
+    private static final int REGISTRATIONS = 200;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0)
+                            .setNoStorage(true),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                            .setDisableAutoTaskExecution(true));
+
+    private ConferenceApi conferenceApi;
+
+    @SuppressWarnings("rawtypes")
+    private ApiProxy.Delegate stubDelegate;
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        stubDelegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(new DatastoreLatencyDelegate(stubDelegate, LATENCY_MILLIS));
+    }
+
+    @After
+    @SuppressWarnings("unchecked")
+    public void tearDown() throws Exception {
+        System.clearProperty(RegistrationIngestion.MODE_PROPERTY);
+        if (stubDelegate != null) {
+            ApiProxy.setDelegate(stubDelegate);
+        }
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@example.com", "example.com", "user" + i);
+    }
+
+    private String createConference(String name) throws Exception {
+        return conferenceApi.createConference(user(0),
+                new ConferenceForm(name, null, null, null, null, null, REGISTRATIONS))
+                .getWebsafeKey();
+    }
+
+    @Test
+    public void benchmarkIngestionThroughput() throws Exception {
+        // Booked in the request, one transaction per registration.
+        String directKey = createConference("Direct");
+        Benchmarks.Timer directTimer = new Benchmarks.Timer();
+        for (int i = 1; i <= REGISTRATIONS; i++) {
+            ofy().clear();
+            directTimer.start();
+            assertTrue(conferenceApi.registerForConference(user(i), directKey, null)
+                    .getResult());
+            directTimer.stop();
+        }
+
+        // Enqueued in the request, then ingested in batches.
+        System.setProperty(RegistrationIngestion.MODE_PROPERTY, RegistrationIngestion.QUEUED);
+        String queuedKey = createConference("Queued");
+        Benchmarks.Timer enqueueTimer = new Benchmarks.Timer();
+        for (int i = 1; i <= REGISTRATIONS; i++) {
+            ofy().clear();
+            enqueueTimer.start();
+            assertEquals(RegistrationIngestion.PENDING, conferenceApi
+                    .registerForConference(user(i), queuedKey, null).getReason());
+            enqueueTimer.stop();
+        }
+        ofy().clear();
+        Benchmarks.Timer ingestTimer = new Benchmarks.Timer();
+        ingestTimer.start();
+        assertEquals(REGISTRATIONS, RegistrationIngestion.ingest(Key.<Conference>create(queuedKey)));
+        ingestTimer.stop();
+
+        ofy().clear();
+        assertEquals(0, conferenceApi.getConference(directKey).getSeatsAvailable());
+        assertEquals(0, conferenceApi.getConference(queuedKey).getSeatsAvailable());
+
+        Benchmarks.report(
+                "%d registrations, %d ms per datastore call: direct %.0f/s (%.1f ms each); "
+                        + "queued %.1f ms per request, ingested %.0f/s",
+                REGISTRATIONS, LATENCY_MILLIS,
+                directTimer.getRate(REGISTRATIONS), directTimer.getMeanMillis(),
+                enqueueTimer.getMeanMillis(), ingestTimer.getRate(REGISTRATIONS));
+    }
+}
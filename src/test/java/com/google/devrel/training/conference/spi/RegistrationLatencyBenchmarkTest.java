@@ -0,0 +1,146 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Measures registerForConference against the local datastore stub, with every datastore call
+ * delayed to look like a network round trip, and compares loading the Conference and the
+ * Profile one after the other with loading them concurrently.
+ *
+ * It takes a while, so it only runs with -Dbenchmark=true.
+ */
+public class RegistrationLatencyBenchmarkTest {
+
+    /**
+     * Simulated round trip of a datastore call.
+     */
+    private static final long LATENCY_MILLIS = 20;
+
+    private static final int REGISTRATIONS = 50;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0)
+                            .setNoStorage(true),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    private ConferenceApi conferenceApi;
+
+    @SuppressWarnings("rawtypes")
+    private ApiProxy.Delegate stubDelegate;
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        stubDelegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(new DatastoreLatencyDelegate(stubDelegate, LATENCY_MILLIS));
+    }
+
+    @After
+    @SuppressWarnings("unchecked")
+    public void tearDown() throws Exception {
+        if (stubDelegate != null) {
+            ApiProxy.setDelegate(stubDelegate);
+        }
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@example.com", "example.com", "user" + i);
+    }
+
+    /**
+     * Empties the caches in front of the datastore, so that every load pays a round trip.
+     */
+    private static void clearCaches() {
+        ofy().clear();
+        NearCache.invalidateAll();
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+    }
+
+    @Test
+    public void benchmarkRegistrationLatency() throws Exception {
+        Date startDate = new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000L);
+        Conference conference = conferenceApi.createConference(user(0), new ConferenceForm(
+                "Benchmark", null, null, null, startDate, startDate, REGISTRATIONS));
+        String websafeConferenceKey = conference.getWebsafeKey();
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        for (int i = 1; i <= REGISTRATIONS; i++) {
+            conferenceApi.saveProfile(user(i), new ProfileForm("User " + i, null));
+        }
+
+        // The loads made before the transaction, one after the other and then concurrently.
+        Benchmarks.Timer sequentialTimer = new Benchmarks.Timer();
+        Benchmarks.Timer parallelTimer = new Benchmarks.Timer();
+        for (int i = 1; i <= REGISTRATIONS; i++) {
+            Key<Profile> profileKey = Key.create(Profile.class, user(i).getUserId());
+
+            clearCaches();
+            sequentialTimer.start();
+            assertNotNull(ofy().load().key(conferenceKey).now());
+            assertNotNull(ofy().load().key(profileKey).now());
+            sequentialTimer.stop();
+
+            clearCaches();
+            parallelTimer.start();
+            LoadResult<Conference> conferenceResult = ofy().load().key(conferenceKey);
+            LoadResult<Profile> profileResult = ofy().load().key(profileKey);
+            assertNotNull(conferenceResult.now());
+            assertNotNull(profileResult.now());
+            parallelTimer.stop();
+        }
+
+        // The whole endpoint.
+        Benchmarks.Timer registerTimer = new Benchmarks.Timer();
+        for (int i = 1; i <= REGISTRATIONS; i++) {
+            clearCaches();
+            registerTimer.start();
+            assertTrue(conferenceApi.registerForConference(user(i), websafeConferenceKey, null)
+                    .getResult());
+            registerTimer.stop();
+        }
+        clearCaches();
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        Benchmarks.report(
+                "%d ms per datastore call: Conference and Profile loaded sequentially %.1f ms, "
+                        + "concurrently %.1f ms; registerForConference %.1f ms",
+                LATENCY_MILLIS, sequentialTimer.getMeanMillis(),
+                parallelTimer.getMeanMillis(), registerTimer.getMeanMillis());
+    }
+}
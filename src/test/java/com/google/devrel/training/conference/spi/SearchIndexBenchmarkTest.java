@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.IdAllocator;
+import com.google.devrel.training.conference.service.NearCache;
+import com.google.devrel.training.conference.service.SearchIndexService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures searches over 100,000 conferences indexed in the local datastore stub.
+ *
+ * It takes a few minutes, so it only runs with -Dbenchmark=true.
+ */
+public class SearchIndexBenchmarkTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CONFERENCES = 100000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int VOCABULARY = 2000;
+
+    private static final int RUNS = 20;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig()
+                            .setDefaultHighRepJobPolicyUnappliedJobPercentage(0)
+                            .setNoStorage(true),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    private final Random random = new Random(42);
+
+    private ConferenceApi conferenceApi;
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        NearCache.invalidateAll();
+        IdAllocator.reset();
+        helper.tearDown();
+    }
+
+    /**
+     * Returns a word of the vocabulary, the first words being much more frequent than the last.
+     */
+    private String word() {
+        return "w" + (int) Math.pow(VOCABULARY, random.nextDouble());
+    }
+
+    private String words(int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(word()).append(' ');
+        }
+        return words.toString();
+    }
+
+    @Test
+    public void benchmarkSearch() throws Exception {
+        Benchmarks.Timer indexTimer = new Benchmarks.Timer();
+        indexTimer.start();
+        for (int id = 1; id <= CONFERENCES; id += BATCH_SIZE) {
+            List<Conference> conferences = new ArrayList<>(BATCH_SIZE);
+            List<String> websafeConferenceKeys = new ArrayList<>(BATCH_SIZE);
+            for (int i = id; i < id + BATCH_SIZE; i++) {
+                List<String> topics = new ArrayList<>(2);
+                topics.add(word());
+                topics.add(word());
+                Conference conference = new Conference(i, USER_ID, new ConferenceForm(
+                        words(3), words(12), topics, "City", null, null, 100));
+                conferences.add(conference);
+                websafeConferenceKeys.add(conference.getWebsafeKey());
+            }
+            ofy().save().entities(conferences).now();
+            SearchIndexService.indexConferences(websafeConferenceKeys);
+            ofy().clear();
+        }
+        indexTimer.stop();
+        Benchmarks.report("Indexed %d conferences in %.0f ms",
+                CONFERENCES, indexTimer.getTotalMillis());
+
+        for (String query : new String[] {"w1", "w1 w2", "w5 w20 w100", "w1500"}) {
+            int results = 0;
+            Benchmarks.Timer searchTimer = new Benchmarks.Timer();
+            for (int run = 0; run < RUNS; run++) {
+                ofy().clear();
+                searchTimer.start();
+                results = SearchIndexService.search(query).size();
+                searchTimer.stop();
+            }
+            Benchmarks.report("search \"%s\": %d results, %.1f ms", query,
+                    results, searchTimer.getMeanMillis());
+
+            // The first page is made of Conferences containing all the words.
+            for (Conference conference
+                    : conferenceApi.searchConferences(query, null, null).getItems()) {
+                String text = " " + conference.getName() + conference.getDescription()
+                        + conference.getTopics().get(0) + " " + conference.getTopics().get(1) + " ";
+                for (String term : query.split(" ")) {
+                    assertTrue(text.contains(" " + term + " "));
+                }
+            }
+        }
+    }
+}